@@ -0,0 +1,596 @@
+package com.sintef.featureserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPOutputStream;
+import javax.servlet.Filter;
+import javax.servlet.FilterChain;
+import javax.servlet.FilterConfig;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.ServletRequest;
+import javax.servlet.ServletResponse;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+import org.json.JSONObject;
+
+/**
+ * Compresses responses with gzip for clients that accept it.
+ *
+ * Only text, JSON, XML and raw binary responses are compressed; PNG is compressed already.
+ * Bodies shorter than the threshold are sent as they are, as the gzip framing would eat the gain.
+ * The body is held back only until the threshold is passed, so large responses still stream.
+ *
+ * A compressed response is a different representation, so its ETag gets a "--gzip" suffix. The
+ * suffix is stripped from conditional request headers before the resources see them. Compressed
+ * bodies of responses with an ETag are kept in an LRU cache bounded by bytes, so hot content
+ * like the capabilities document is compressed once.
+ *
+ * Every response that could be compressed carries "Vary: Accept-Encoding", also when the client
+ * did not ask for gzip, so shared caches do not hand a plain body to a client that wants gzip or
+ * the other way around.
+ *
+ * @author arve
+ */
+public class CompressionFilter implements Filter {
+    private static final String GZIP = "gzip";
+    private static final String ETAG_SUFFIX = "--" + GZIP;
+    // Bodies larger than this are not cached.
+    private static final int MAX_CACHED_BODY = 1024 * 1024;
+
+    private final int minBytes;
+    private final int level;
+    private final long maxCacheBytes;
+    private final LinkedHashMap<String, byte[]> cache = new LinkedHashMap<>(64, 0.75f, true);
+    private long cacheBytes = 0;
+
+    // Metrics
+    private final AtomicLong compressed = new AtomicLong();
+    private final AtomicLong uncompressed = new AtomicLong();
+    private final AtomicLong cacheHits = new AtomicLong();
+    private final AtomicLong bytesIn = new AtomicLong();
+    private final AtomicLong bytesOut = new AtomicLong();
+
+    /**
+     * @param minBytes Bodies shorter than this are not compressed.
+     * @param level Deflate level, 1 to 9.
+     * @param maxCacheBytes Byte budget of the cache of compressed bodies. 0 disables it.
+     */
+    public CompressionFilter(final int minBytes, final int level, final long maxCacheBytes) {
+        this.minBytes = Math.max(1, minBytes);
+        this.level = level;
+        this.maxCacheBytes = maxCacheBytes;
+    }
+
+    @Override
+    public void init(final FilterConfig filterConfig) {}
+
+    @Override
+    public void destroy() {}
+
+    @Override
+    public void doFilter(
+            final ServletRequest servletRequest,
+            final ServletResponse servletResponse,
+            final FilterChain chain) throws IOException, ServletException {
+        final HttpServletRequest request = (HttpServletRequest) servletRequest;
+        if ("HEAD".equals(request.getMethod())
+                || !acceptsGzip(request.getHeader("Accept-Encoding"))) {
+            chain.doFilter(servletRequest,
+                    new VaryingResponse((HttpServletResponse) servletResponse));
+            return;
+        }
+        final String ifNoneMatch = request.getHeader("If-None-Match");
+        final CompressingResponse response = new CompressingResponse(
+                (HttpServletResponse) servletResponse,
+                ifNoneMatch != null && ifNoneMatch.contains(ETAG_SUFFIX));
+        boolean completed = false;
+        try {
+            chain.doFilter(new StrippedEtagRequest(request), response);
+            completed = true;
+        } finally {
+            response.finish(completed);
+        }
+    }
+
+    public JSONObject getStatistics() {
+        synchronized (cache) {
+            return new JSONObject()
+                    .put("compressed", compressed.get())
+                    .put("uncompressed", uncompressed.get())
+                    .put("cacheHits", cacheHits.get())
+                    .put("bytesIn", bytesIn.get())
+                    .put("bytesOut", bytesOut.get())
+                    .put("cachedBodies", cache.size())
+                    .put("cacheBytes", cacheBytes)
+                    .put("maxCacheBytes", maxCacheBytes);
+        }
+    }
+
+    /**
+     * @return true if gzip, or any encoding, is listed without q=0.
+     */
+    static boolean acceptsGzip(final String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (final String coding : acceptEncoding.split(",")) {
+            final String[] parts = coding.split(";");
+            final String name = parts[0].trim().toLowerCase(Locale.ROOT);
+            if (!name.equals(GZIP) && !name.equals("*")) {
+                continue;
+            }
+            boolean refused = false;
+            for (int i = 1; i < parts.length; i++) {
+                final String parameter = parts[i].trim().replace(" ", "");
+                if (parameter.startsWith("q=")) {
+                    try {
+                        refused = Double.parseDouble(parameter.substring(2)) <= 0;
+                    } catch (final NumberFormatException e) {
+                        refused = true;
+                    }
+                }
+            }
+            if (!refused) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean isCompressible(final String contentType) {
+        if (contentType == null) {
+            return false;
+        }
+        final String type = contentType.toLowerCase(Locale.ROOT);
+        return type.startsWith("text/")
+                || type.startsWith("application/json")
+                || type.startsWith("application/xml")
+                || type.startsWith("application/octet-stream")
+                || type.contains("+xml")
+                || type.contains("+json");
+    }
+
+    /**
+     * @return the entity tag with the suffix added inside the quotes.
+     */
+    private static String withSuffix(final String etag) {
+        return etag.endsWith("\"")
+                ? etag.substring(0, etag.length() - 1) + ETAG_SUFFIX + "\""
+                : etag + ETAG_SUFFIX;
+    }
+
+    private byte[] cached(final String etag) {
+        synchronized (cache) {
+            return cache.get(etag);
+        }
+    }
+
+    private void store(final String etag, final byte[] body) {
+        if (body.length > maxCacheBytes) {
+            return;
+        }
+        synchronized (cache) {
+            final byte[] previous = cache.put(etag, body);
+            if (previous != null) {
+                cacheBytes -= previous.length;
+            }
+            cacheBytes += body.length;
+            final Iterator<byte[]> eldest = cache.values().iterator();
+            while (cacheBytes > maxCacheBytes && eldest.hasNext()) {
+                cacheBytes -= eldest.next().length;
+                eldest.remove();
+            }
+        }
+    }
+
+    /**
+     * Hides the "--gzip" suffix of entity tags sent back by clients.
+     */
+    private static final class StrippedEtagRequest extends HttpServletRequestWrapper {
+        StrippedEtagRequest(final HttpServletRequest request) {
+            super(request);
+        }
+
+        @Override
+        public String getHeader(final String name) {
+            final String value = super.getHeader(name);
+            return isConditional(name) && value != null ? value.replace(ETAG_SUFFIX, "") : value;
+        }
+
+        @Override
+        public Enumeration<String> getHeaders(final String name) {
+            final Enumeration<String> values = super.getHeaders(name);
+            if (!isConditional(name) || values == null) {
+                return values;
+            }
+            final List<String> stripped = new ArrayList<>();
+            while (values.hasMoreElements()) {
+                stripped.add(values.nextElement().replace(ETAG_SUFFIX, ""));
+            }
+            return Collections.enumeration(stripped);
+        }
+
+        private static boolean isConditional(final String name) {
+            return "If-None-Match".equalsIgnoreCase(name) || "If-Match".equalsIgnoreCase(name);
+        }
+    }
+
+    /**
+     * Adds the Vary header to compressible responses that are sent as they are.
+     */
+    private static final class VaryingResponse extends HttpServletResponseWrapper {
+        private boolean varied = false;
+
+        VaryingResponse(final HttpServletResponse response) {
+            super(response);
+        }
+
+        @Override
+        public void setContentType(final String type) {
+            super.setContentType(type);
+            if (isCompressible(type)) {
+                vary();
+            }
+        }
+
+        @Override
+        public void setStatus(final int sc) {
+            super.setStatus(sc);
+            if (sc == SC_NOT_MODIFIED) {
+                vary();
+            }
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                setContentType(value);
+            } else {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                setContentType(value);
+            } else {
+                super.addHeader(name, value);
+            }
+        }
+
+        private void vary() {
+            if (!varied) {
+                varied = true;
+                super.addHeader("Vary", "Accept-Encoding");
+            }
+        }
+    }
+
+    /**
+     * Gzip stream at a given deflate level, whose deflater can be released without closing the
+     * response.
+     */
+    private static final class LeveledGzipOutputStream extends GZIPOutputStream {
+        LeveledGzipOutputStream(final OutputStream out, final int level) throws IOException {
+            super(out, 8192, true);
+            def.setLevel(level);
+        }
+
+        void end() {
+            def.end();
+        }
+    }
+
+    private enum State { UNDECIDED, PLAIN, COMPRESSED, FROM_CACHE }
+
+    /**
+     * Holds back the body until it is known whether to compress it, and the headers that depend
+     * on that decision.
+     */
+    private final class CompressingResponse extends HttpServletResponseWrapper {
+        private final ByteArrayOutputStream pending = new ByteArrayOutputStream();
+        private final boolean clientHasCompressed;
+        private State state = State.UNDECIDED;
+        private int status = SC_OK;
+        private String contentLength = null;
+        private String etag = null;
+        private OutputStream body;
+        private LeveledGzipOutputStream gzip;
+        private ByteArrayOutputStream copy;
+        private long bodyBytes = 0;
+        private long compressedBytes = 0;
+        private ServletOutputStream outputStream;
+        private PrintWriter writer;
+
+        /**
+         * @param clientHasCompressed true if the client validates a compressed representation.
+         */
+        CompressingResponse(final HttpServletResponse response, final boolean clientHasCompressed) {
+            super(response);
+            this.clientHasCompressed = clientHasCompressed;
+        }
+
+        @Override
+        public void setStatus(final int sc) {
+            status = sc;
+            super.setStatus(sc);
+        }
+
+        @Override
+        public void sendError(final int sc, final String msg) throws IOException {
+            status = sc;
+            state = State.PLAIN;
+            super.sendError(sc, msg);
+        }
+
+        @Override
+        public void sendError(final int sc) throws IOException {
+            status = sc;
+            state = State.PLAIN;
+            super.sendError(sc);
+        }
+
+        @Override
+        public void setContentLength(final int length) {
+            setHeader("Content-Length", Integer.toString(length));
+        }
+
+        @Override
+        public void setHeader(final String name, final String value) {
+            if (!intercept(name, value)) {
+                super.setHeader(name, value);
+            }
+        }
+
+        @Override
+        public void addHeader(final String name, final String value) {
+            if (!intercept(name, value)) {
+                super.addHeader(name, value);
+            }
+        }
+
+        @Override
+        public void setIntHeader(final String name, final int value) {
+            setHeader(name, Integer.toString(value));
+        }
+
+        @Override
+        public void addIntHeader(final String name, final int value) {
+            addHeader(name, Integer.toString(value));
+        }
+
+        /**
+         * @return true if the header is held back until the body is.
+         */
+        private boolean intercept(final String name, final String value) {
+            if ("Content-Type".equalsIgnoreCase(name)) {
+                // Jetty does not parse a Content-Type set as a plain header.
+                setContentType(value);
+                return true;
+            }
+            if (state != State.UNDECIDED) {
+                return false;
+            }
+            if ("Content-Length".equalsIgnoreCase(name)) {
+                contentLength = value;
+                return true;
+            }
+            if ("ETag".equalsIgnoreCase(name)) {
+                etag = value;
+                return true;
+            }
+            return false;
+        }
+
+        @Override
+        public ServletOutputStream getOutputStream() {
+            if (outputStream == null) {
+                outputStream = new ServletOutputStream() {
+                    @Override
+                    public void write(final int b) throws IOException {
+                        write(new byte[] {(byte) b}, 0, 1);
+                    }
+
+                    @Override
+                    public void write(final byte[] b, final int off, final int len)
+                            throws IOException {
+                        writeBody(b, off, len);
+                    }
+
+                    @Override
+                    public void flush() throws IOException {
+                        flushBody();
+                    }
+                };
+            }
+            return outputStream;
+        }
+
+        @Override
+        public PrintWriter getWriter() throws IOException {
+            if (writer == null) {
+                writer = new PrintWriter(
+                        new OutputStreamWriter(getOutputStream(), getCharacterEncoding()));
+            }
+            return writer;
+        }
+
+        @Override
+        public void flushBuffer() throws IOException {
+            flushBody();
+        }
+
+        @Override
+        public void resetBuffer() {
+            pending.reset();
+            super.resetBuffer();
+        }
+
+        private void writeBody(final byte[] b, final int off, final int len) throws IOException {
+            bodyBytes += len;
+            switch (state) {
+                case UNDECIDED:
+                    if (status != SC_OK || !isCompressible(getContentType())) {
+                        startPlain();
+                        body.write(b, off, len);
+                        return;
+                    }
+                    pending.write(b, off, len);
+                    if (pending.size() >= minBytes) {
+                        startCompressed();
+                    }
+                    return;
+                case PLAIN:
+                    body.write(b, off, len);
+                    return;
+                case COMPRESSED:
+                    gzip.write(b, off, len);
+                    return;
+                default:
+                    // The compressed body comes from the cache
+            }
+        }
+
+        private void flushBody() throws IOException {
+            if (writer != null) {
+                writer.flush();
+            }
+            // Nothing is sent before the compression decision.
+            if (state == State.PLAIN) {
+                body.flush();
+            } else if (state == State.COMPRESSED) {
+                gzip.flush();
+            }
+        }
+
+        private void startPlain() throws IOException {
+            state = State.PLAIN;
+            if (contentLength != null) {
+                super.setHeader("Content-Length", contentLength);
+            }
+            if (etag != null) {
+                // A 304 confirms the representation the client has.
+                final boolean compressedVariant = status == SC_NOT_MODIFIED && clientHasCompressed;
+                super.setHeader("ETag", compressedVariant ? withSuffix(etag) : etag);
+            }
+            if (isCompressible(getContentType()) || status == SC_NOT_MODIFIED) {
+                super.addHeader("Vary", "Accept-Encoding");
+            }
+            body = super.getOutputStream();
+            uncompressed.incrementAndGet();
+            pending.writeTo(body);
+            pending.reset();
+        }
+
+        private void startCompressed() throws IOException {
+            super.setHeader("Content-Encoding", GZIP);
+            super.addHeader("Vary", "Accept-Encoding");
+            if (etag != null) {
+                super.setHeader("ETag", withSuffix(etag));
+                final byte[] cachedBody = cached(etag);
+                if (cachedBody != null) {
+                    state = State.FROM_CACHE;
+                    cacheHits.incrementAndGet();
+                    super.setContentLength(cachedBody.length);
+                    super.getOutputStream().write(cachedBody);
+                    bytesOut.addAndGet(cachedBody.length);
+                    pending.reset();
+                    return;
+                }
+            }
+            state = State.COMPRESSED;
+            compressed.incrementAndGet();
+            body = super.getOutputStream();
+            if (etag != null && maxCacheBytes > 0) {
+                copy = new ByteArrayOutputStream();
+            }
+            // Counts the compressed bytes and keeps a copy for the cache.
+            final OutputStream target = new OutputStream() {
+                @Override
+                public void write(final int b) throws IOException {
+                    write(new byte[] {(byte) b}, 0, 1);
+                }
+
+                @Override
+                public void write(final byte[] b, final int off, final int len)
+                        throws IOException {
+                    body.write(b, off, len);
+                    compressedBytes += len;
+                    if (copy != null) {
+                        copy.write(b, off, len);
+                        if (copy.size() > MAX_CACHED_BODY) {
+                            copy = null;
+                        }
+                    }
+                }
+
+                @Override
+                public void flush() throws IOException {
+                    body.flush();
+                }
+            };
+            gzip = new LeveledGzipOutputStream(target, level);
+            pending.writeTo(gzip);
+            pending.reset();
+        }
+
+        /**
+         * Completes the body after the resource is done with it.
+         *
+         * @param completed false if the resource failed. A body that is still held back is then
+         * dropped, so the container can send its error response, and a compressed body is not
+         * terminated.
+         */
+        void finish(final boolean completed) throws IOException {
+            if (!completed) {
+                pending.reset();
+                if (gzip != null) {
+                    gzip.end();
+                }
+                return;
+            }
+            if (writer != null) {
+                writer.flush();
+            }
+            bytesIn.addAndGet(bodyBytes);
+            switch (state) {
+                case UNDECIDED:
+                    if (bodyBytes > 0 || contentLength != null || etag != null) {
+                        startPlain();
+                    }
+                    bytesOut.addAndGet(bodyBytes);
+                    return;
+                case PLAIN:
+                    bytesOut.addAndGet(bodyBytes);
+                    return;
+                case COMPRESSED:
+                    try {
+                        gzip.finish();
+                    } finally {
+                        gzip.end();
+                    }
+                    bytesOut.addAndGet(compressedBytes);
+                    if (copy != null) {
+                        store(etag, copy.toByteArray());
+                    }
+                    return;
+                default:
+            }
+        }
+    }
+}
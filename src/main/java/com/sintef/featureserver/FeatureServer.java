@@ -1,8 +1,32 @@
 package com.sintef.featureserver;
 
+import com.sintef.featureserver.netcdf.CatalogEntry;
+import com.sintef.featureserver.netcdf.DatasetRegistry;
+import com.sintef.featureserver.netcdf.FileCatalog;
+import com.sintef.featureserver.netcdf.IndexWatcher;
+import com.sintef.featureserver.netcdf.NetCdfIndexer;
 import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.netcdf.OverviewBuilder;
+import com.sintef.featureserver.netcdf.OverviewStore;
+import com.sintef.featureserver.netcdf.SliceCache;
+import com.sintef.featureserver.providers.CapabilitiesDocumentProvider;
 import com.sintef.featureserver.providers.NetCdfManagerProvider;
+import com.sintef.featureserver.providers.TileSeederProvider;
+import com.sintef.featureserver.providers.TileServiceProvider;
 import com.sintef.featureserver.providers.VelocityEngineProvider;
+import com.sintef.featureserver.providers.WebServerProvider;
+import com.sintef.featureserver.util.PngEncoder;
+import com.sintef.featureserver.util.RsUtil;
+import com.sintef.featureserver.util.VelocityUtil;
+import com.sintef.featureserver.wmts.CapabilitiesDocument;
+import com.sintef.featureserver.wmts.TileCache;
+import com.sintef.featureserver.wmts.TileSeeder;
+import com.sintef.featureserver.wmts.TileService;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
 import org.apache.velocity.app.Velocity;
 import org.apache.velocity.app.VelocityEngine;
 import org.cloudname.flags.Flag;
@@ -13,11 +37,181 @@ public class FeatureServer {
           description = "whicb port to run the API server on")
     public static int webserverPort = 10100;
 
+    @Flag(name = "http-acceptors",
+          description = "Threads accepting HTTP connections, each also running a selector")
+    public static int httpAcceptors = Math.max(1, Runtime.getRuntime().availableProcessors() / 4);
+
+    @Flag(name = "http-min-threads",
+          description = "Worker threads kept for HTTP requests when idle")
+    public static int httpMinThreads = 8;
+
+    @Flag(name = "http-max-threads",
+          description = "Max worker threads handling HTTP requests. More requests are queued")
+    public static int httpMaxThreads = 64;
+
+    @Flag(name = "http-accept-queue",
+          description = "Backlog of HTTP connections waiting to be accepted")
+    public static int httpAcceptQueue = 1024;
+
+    @Flag(name = "http-idle-timeout-ms",
+          description = "Idle HTTP connections are closed after this many milliseconds")
+    public static int httpIdleTimeoutMs = 60000;
+
+    @Flag(name = "gzip",
+          description = "Compress text, JSON, XML and binary responses for clients accepting gzip")
+    public static boolean gzip = true;
+
+    @Flag(name = "gzip-min-bytes",
+          description = "Responses smaller than this are not compressed")
+    public static int gzipMinBytes = 1024;
+
+    @Flag(name = "gzip-level",
+          description = "Deflate level of compressed responses, 1 to 9")
+    public static int gzipLevel = 6;
+
+    @Flag(name = "gzip-cache-bytes",
+          description = "Memory for compressed bodies of responses with an ETag")
+    public static long gzipCacheBytes = 32L * 1024 * 1024;
+
     @Flag(name = "netcdf-file",
           description = "Temporary flag. Which file are we using as data source",
           required = true)
     public static String netCdfFile;
 
+    @Flag(name = "datasets-per-file",
+          description = "Max number of simultaneously open datasets for a single netCDF file")
+    public static int datasetsPerFile = 4;
+
+    @Flag(name = "dataset-idle-seconds",
+          description = "Open datasets that have not been used for this long are closed")
+    public static int datasetIdleSeconds = 300;
+
+    @Flag(name = "slice-cache-bytes",
+          description = "Off-heap memory used to cache decoded data slices. 0 disables the cache")
+    public static long sliceCacheBytes = 512L * 1024 * 1024;
+
+    @Flag(name = "index-database",
+          description = "Path of the sqlite database indexing the netCDF files")
+    public static String indexDatabase = "sinmod.sqlite";
+
+    @Flag(name = "data-dir",
+          description = "Directory of netCDF files to index and watch for new files. Empty"
+                  + " disables the index")
+    public static String dataDir = "";
+
+    @Flag(name = "index-quiet-seconds",
+          description = "A new or changed netCDF file is indexed once it has not been modified"
+                  + " for this long")
+    public static int indexQuietSeconds = 10;
+
+    @Flag(name = "index-reconcile-seconds",
+          description = "Seconds between full scans of the data directory, which catch changes"
+                  + " the file watcher missed")
+    public static int indexReconcileSeconds = 900;
+
+    @Flag(name = "index-threads",
+          description = "Number of threads reading netCDF headers when scanning for new files")
+    public static int indexThreads = Runtime.getRuntime().availableProcessors();
+
+    @Flag(name = "overview-dir",
+          description = "Where overview pyramids are stored. Defaults to 'overviews' next to the"
+                  + " index database")
+    public static String overviewDir = "";
+
+    @Flag(name = "build-overviews",
+          description = "Build missing overview pyramids in the background, at startup and as"
+                  + " files are indexed")
+    public static boolean buildOverviews = true;
+
+    @Flag(name = "render-parallelism",
+          description = "Max number of threads rendering one image. 1 renders on the request"
+                  + " thread only")
+    public static int renderParallelism = 4;
+
+    @Flag(name = "parallel-render-pixels",
+          description = "Images with fewer pixels than this are rendered on a single thread")
+    public static int parallelRenderPixels = 512 * 512;
+
+    @Flag(name = "png-deflate-level",
+          description = "Deflate level of the PNG images, 0 (fastest) to 9 (smallest)")
+    public static int pngDeflateLevel = 6;
+
+    @Flag(name = "png-filter",
+          description = "PNG row filter: NONE, SUB, UP, AVERAGE, PAETH or ADAPTIVE")
+    public static String pngFilter = "NONE";
+
+    @Flag(name = "tile-cache-bytes",
+          description = "Memory used to cache encoded WMTS tiles. 0 keeps tiles on disk only")
+    public static long tileCacheBytes = 256L * 1024 * 1024;
+
+    @Flag(name = "tile-cache-dir",
+          description = "Where WMTS tiles are cached on disk. Defaults to 'tiles' next to the"
+                  + " index database")
+    public static String tileCacheDir = "";
+
+    @Flag(name = "tile-cache-disk-bytes",
+          description = "Disk space used to cache encoded WMTS tiles. The oldest tiles are"
+                  + " deleted beyond it. 0 keeps tiles in memory only")
+    public static long tileCacheDiskBytes = 4L * 1024 * 1024 * 1024;
+
+    @Flag(name = "metatile-size",
+          description = "WMTS tiles are rendered in blocks of this many tiles square")
+    public static int metatileSize = 4;
+
+    @Flag(name = "metatile-buffer",
+          description = "Pixels rendered around each block of WMTS tiles, so nothing is cut at"
+                  + " tile edges")
+    public static int metatileBuffer = 16;
+
+    @Flag(name = "seed-threads",
+          description = "Number of threads rendering tiles for seed jobs")
+    public static int seedThreads = 2;
+
+    @Flag(name = "seed-on-start",
+          description = "Seed the tile cache at startup, as given by the other seed flags")
+    public static boolean seedOnStart = false;
+
+    @Flag(name = "seed-layers",
+          description = "Comma separated layers to seed. All layers if empty")
+    public static String seedLayers = "";
+
+    @Flag(name = "seed-min-zoom",
+          description = "First zoom level to seed")
+    public static int seedMinZoom = 0;
+
+    @Flag(name = "seed-max-zoom",
+          description = "Last zoom level to seed. -1 for the deepest level")
+    public static int seedMaxZoom = -1;
+
+    @Flag(name = "seed-times",
+          description = "Comma separated ISO 8601 times to seed. Every time step if empty")
+    public static String seedTimes = "";
+
+    @Flag(name = "seed-depths",
+          description = "Comma separated depths to seed. Every depth if empty")
+    public static String seedDepths = "";
+
+    @Flag(name = "admin-token",
+          description = "Token clients must send in the X-Admin-Token header to start seed jobs."
+                  + " If empty, seed jobs can only be started from the local host")
+    public static String adminToken = "";
+
+    @Flag(name = "max-age-area",
+          description = "Seconds clients may cache area images before revalidating")
+    public static int maxAgeArea = 600;
+
+    @Flag(name = "max-age-profile",
+          description = "Seconds clients may cache depth profiles before revalidating")
+    public static int maxAgeProfile = 600;
+
+    @Flag(name = "max-age-tile",
+          description = "Seconds clients may cache WMTS tiles before revalidating")
+    public static int maxAgeTile = 3600;
+
+    @Flag(name = "max-age-capabilities",
+          description = "Seconds clients may cache the WMTS capabilities before revalidating")
+    public static int maxAgeCapabilities = 300;
+
 
     public static void main(final String[] args) throws Exception {
         Flags flags = new Flags()
@@ -34,12 +228,100 @@ public class FeatureServer {
 
     public void start() {
         // Initialize providers
-        NetCdfManagerProvider.value = new NetCdfManager();
+        final DatasetRegistry datasetRegistry
+                = new DatasetRegistry(datasetsPerFile, datasetIdleSeconds);
+        final OverviewStore overviewStore
+                = new OverviewStore(siblingOfIndex(overviewDir, "overviews"));
+        final SliceCache sliceCache = new SliceCache(sliceCacheBytes);
+        final FileCatalog fileCatalog = new FileCatalog();
+        NetCdfManagerProvider.value
+                = new NetCdfManager(datasetRegistry, fileCatalog, overviewStore, sliceCache);
+        final List<CatalogEntry> indexedFiles = new ArrayList<>();
+        if (!dataDir.isEmpty()) {
+            NetCdfIndexer.initialize();
+            indexedFiles.addAll(NetCdfIndexer.loadCatalog());
+            fileCatalog.load(indexedFiles);
+        }
+        TileServiceProvider.value = new TileService(
+                NetCdfManagerProvider.value,
+                new TileCache(tileCacheBytes,
+                        tileCacheDiskBytes > 0 ? siblingOfIndex(tileCacheDir, "tiles") : null,
+                        tileCacheDiskBytes),
+                metatileSize,
+                metatileBuffer);
+        TileSeederProvider.value = new TileSeeder(
+                TileServiceProvider.value, NetCdfManagerProvider.value, seedThreads);
+        final OverviewBuilder overviewBuilder = new OverviewBuilder(datasetRegistry, overviewStore);
+        if (buildOverviews) {
+            overviewBuilder.buildInBackground(netCdfFile);
+            for (final CatalogEntry entry : indexedFiles) {
+                overviewBuilder.buildInBackground(entry.getFilepath());
+            }
+        }
         VelocityEngineProvider.velocityEngine = createVelocityEngine();
-        final WebServer webServer = new WebServer(webserverPort);
+        CapabilitiesDocumentProvider.value = new CapabilitiesDocument(
+                NetCdfManagerProvider.value,
+                TileServiceProvider.value,
+                VelocityUtil.loadTemplate(
+                        VelocityEngineProvider.velocityEngine, CapabilitiesDocument.TEMPLATE),
+                maxAgeCapabilities);
+        if (!dataDir.isEmpty()) {
+            // The catalog first, so the other listeners see the new coverage.
+            NetCdfIndexer.addListener(fileCatalog);
+            NetCdfIndexer.addListener(event -> {
+                // Drop everything cached from the previous version of the file.
+                datasetRegistry.invalidate(event.getFilepath());
+                sliceCache.invalidate(event.getFilepath());
+                overviewStore.invalidate(event.getFilepath());
+                NetCdfManagerProvider.value.invalidate(event.getFilepath());
+                TileServiceProvider.value.invalidate(event.getFilepath());
+                CapabilitiesDocumentProvider.value.invalidate();
+            });
+            if (buildOverviews) {
+                NetCdfIndexer.addListener(overviewBuilder);
+            }
+            try {
+                new IndexWatcher(Paths.get(dataDir), indexQuietSeconds, indexReconcileSeconds)
+                        .start();
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not watch " + dataDir, e);
+            }
+        }
+        RsUtil.pngEncoder = new PngEncoder(
+                pngDeflateLevel, PngEncoder.Filter.valueOf(pngFilter.toUpperCase()));
+        final WebServer webServer = new WebServer(
+                webserverPort,
+                httpAcceptors,
+                httpMinThreads,
+                httpMaxThreads,
+                httpAcceptQueue,
+                httpIdleTimeoutMs,
+                gzip ? new CompressionFilter(gzipMinBytes, gzipLevel, gzipCacheBytes) : null);
+        WebServerProvider.value = webServer;
         webServer.start();
+        if (seedOnStart) {
+            try {
+                TileSeederProvider.value.seed(
+                        seedLayers, seedMinZoom, seedMaxZoom, seedTimes, seedDepths);
+            } catch (final IOException e) {
+                throw new RuntimeException("Could not start seeding tiles", e);
+            }
+        }
+    }
+
+    /**
+     * @return the directory given by a flag, or the named default next to the index database.
+     */
+    private static Path siblingOfIndex(final String flagValue, final String defaultName) {
+        if (!flagValue.isEmpty()) {
+            return Paths.get(flagValue);
+        }
+        return Paths.get(indexDatabase).toAbsolutePath().resolveSibling(defaultName);
     }
 
+    /**
+     * Templates are parsed once and kept; they are part of the jar and never change.
+     */
     private static VelocityEngine createVelocityEngine() {
         final VelocityEngine velocityEngine = new VelocityEngine();
         velocityEngine.setProperty(Velocity.RUNTIME_LOG_REFERENCE_LOG_INVALID, Boolean.TRUE);
@@ -47,6 +329,8 @@ public class FeatureServer {
         velocityEngine.setProperty(Velocity.RESOURCE_LOADER, "class");
         velocityEngine.setProperty("class.resource.loader.class",
                 "org.apache.velocity.runtime.resource.loader.ClasspathResourceLoader");
+        velocityEngine.setProperty("class.resource.loader.cache", Boolean.TRUE);
+        velocityEngine.setProperty("class.resource.loader.modificationCheckInterval", "-1");
         velocityEngine.init();
         return velocityEngine;
     }
@@ -2,17 +2,32 @@ package com.sintef.featureserver;
 
 import com.sun.jersey.spi.container.servlet.ServletContainer;
 import java.util.ArrayList;
+import java.util.EnumSet;
 import java.util.List;
 import java.util.logging.Logger;
+import javax.servlet.DispatcherType;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
 import org.eclipse.jetty.server.Connector;
 import org.eclipse.jetty.server.Handler;
-import org.eclipse.jetty.server.bio.SocketConnector;
 import org.eclipse.jetty.server.handler.ContextHandlerCollection;
 import org.eclipse.jetty.server.handler.HandlerCollection;
 import org.eclipse.jetty.server.handler.RequestLogHandler;
+import org.eclipse.jetty.server.nio.SelectChannelConnector;
+import org.eclipse.jetty.servlet.FilterHolder;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
+import org.eclipse.jetty.util.thread.QueuedThreadPool;
+import org.json.JSONObject;
 
+/**
+ * The HTTP server.
+ *
+ * Connections are handled by an NIO selector connector, so an idle keep-alive connection costs a
+ * registered channel rather than a thread. Requests are dispatched to a bounded pool of worker
+ * threads; requests beyond that wait in the pool's queue. Responses are compressed by a
+ * {@link CompressionFilter} when one is given.
+ */
 public class WebServer {
     private static final Logger LOGGER = Logger.getLogger(WebServer.class.getName());
     private static final String JETTY_RESOURCES
@@ -20,14 +35,38 @@ public class WebServer {
             + "com.sintef.featureserver.providers";
     private final int port;
     private final org.eclipse.jetty.server.Server server = new org.eclipse.jetty.server.Server();
-    private final SocketConnector connector = new SocketConnector();
+    private final SelectChannelConnector connector = new SelectChannelConnector();
+    private final BlockingQueue<Runnable> requestQueue = new LinkedBlockingQueue<>();
+    private final QueuedThreadPool threadPool = new QueuedThreadPool(requestQueue);
+    private final CompressionFilter compressionFilter;
 
     /**
      * WebServer constructor.
      * @param port port number
+     * @param acceptors Threads accepting connections. Each of them also runs a selector.
+     * @param minThreads Worker threads kept when idle.
+     * @param maxThreads Max threads of the pool, which also runs the acceptors.
+     * @param acceptQueueSize Backlog of connections not yet accepted.
+     * @param idleTimeoutMillis Idle connections are closed after this long.
+     * @param compressionFilter Compresses responses, or null to send them as they are.
      */
-    public WebServer(final int port) {
+    public WebServer(
+            final int port,
+            final int acceptors,
+            final int minThreads,
+            final int maxThreads,
+            final int acceptQueueSize,
+            final int idleTimeoutMillis,
+            final CompressionFilter compressionFilter) {
         this.port = port;
+        this.compressionFilter = compressionFilter;
+        threadPool.setName("http-worker");
+        threadPool.setMinThreads(minThreads);
+        threadPool.setMaxThreads(Math.max(minThreads, maxThreads));
+        connector.setAcceptors(acceptors);
+        connector.setAcceptQueueSize(acceptQueueSize);
+        connector.setMaxIdleTime(idleTimeoutMillis);
+        connector.setStatsOn(true);
     }
 
     /**
@@ -37,6 +76,7 @@ public class WebServer {
         connector.setPort(port);
         LOGGER.config("Using port " + port);
         server.setConnectors(new Connector[]{connector});
+        server.setThreadPool(threadPool);
 
         final List<Handler> contextHandlers = new ArrayList<>();
 
@@ -46,6 +86,10 @@ public class WebServer {
         // Setting package path where Jersey looks for Providers and Resources
         idServlet.setInitParameter("com.sun.jersey.config.property.packages", JETTY_RESOURCES);
         idHandler.addServlet(idServlet, "/*");
+        if (compressionFilter != null) {
+            idHandler.addFilter(
+                    new FilterHolder(compressionFilter), "/*", EnumSet.of(DispatcherType.REQUEST));
+        }
         contextHandlers.add(idHandler);
 
         final RequestLogHandler requestLogHandler = null;
@@ -67,4 +111,31 @@ public class WebServer {
             throw new RuntimeException(e);
         }
     }
+
+    /**
+     * Counters and gauges of the connector and the worker pool.
+     */
+    public JSONObject getStatistics() {
+        final int threads = threadPool.getThreads();
+        final int busyThreads = threads - threadPool.getIdleThreads();
+        return new JSONObject()
+                .put("connector", new JSONObject()
+                        .put("acceptors", connector.getAcceptors())
+                        .put("connectionsOpen", connector.getConnectionsOpen())
+                        .put("connectionsOpenMax", connector.getConnectionsOpenMax())
+                        .put("connections", connector.getConnections())
+                        .put("requests", connector.getRequests()))
+                .put("threadPool", new JSONObject()
+                        .put("threads", threads)
+                        .put("busyThreads", busyThreads)
+                        .put("idleThreads", threadPool.getIdleThreads())
+                        .put("minThreads", threadPool.getMinThreads())
+                        .put("maxThreads", threadPool.getMaxThreads())
+                        .put("queuedRequests", requestQueue.size())
+                        .put("utilization", (double) busyThreads / threadPool.getMaxThreads())
+                        .put("lowOnThreads", threadPool.isLowOnThreads()))
+                .put("compression", compressionFilter == null
+                        ? JSONObject.NULL
+                        : compressionFilter.getStatistics());
+    }
 }
@@ -0,0 +1,29 @@
+package com.sintef.featureserver.exception;
+
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import org.json.JSONObject;
+
+/**
+ * Exception class for requests the client is not allowed to make.
+ * Throwing this exception will return a 403 Forbidden response.
+ *
+ * @author arve
+ */
+public class ForbiddenException extends WebApplicationException {
+    private static final Response.Status STATUS_CODE = Response.Status.FORBIDDEN;
+
+    /**
+     * Shows a standard json error object of the form
+     * { "errorMessage": errorMessage}
+     * @param errorMessage Human readable error message.
+     */
+    public ForbiddenException(final String errorMessage) {
+        super(Response
+                .status(STATUS_CODE)
+                .entity(new JSONObject().put("errorMessage", errorMessage).toString())
+                .type(MediaType.APPLICATION_JSON)
+                .build());
+    }
+}
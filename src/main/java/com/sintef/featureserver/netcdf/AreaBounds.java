@@ -1,5 +1,6 @@
 package com.sintef.featureserver.netcdf;
 
+import com.sintef.featureserver.util.ImageRenderer;
 import org.joda.time.DateTime;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.LatLonRect;
@@ -13,6 +14,7 @@ public class AreaBounds {
     final LatLonPoint lowerRight;
     private final Float depth;
     private final DateTime time;
+    private final int outputSize;
 
     /**
      * Preferred constructor
@@ -29,10 +31,26 @@ public class AreaBounds {
             final LatLonPoint lowerRight,
             final Float depth,
             final DateTime time) {
+        this(upperLeft, lowerRight, depth, time, ImageRenderer.GOAL_SIZE);
+    }
+
+    /**
+     * Creates bounds in 4D for an image of a known size, e.g. a metatile.
+     *
+     * @param outputSize Length in pixels of the shortest side of the image the data is
+     * rendered to. The data is read at about this density.
+     */
+    public AreaBounds(
+            final LatLonPoint upperLeft,
+            final LatLonPoint lowerRight,
+            final Float depth,
+            final DateTime time,
+            final int outputSize) {
         this.upperLeft = upperLeft;
         this.lowerRight = lowerRight;
         this.depth = depth;
         this.time = time;
+        this.outputSize = outputSize;
     }
 
     /**
@@ -50,15 +68,26 @@ public class AreaBounds {
         this.lowerRight = lowerRight;
         this.depth = null;
         this.time = null;
+        this.outputSize = ImageRenderer.GOAL_SIZE;
     }
 
 
     public LatLonRect getRect() { return new LatLonRect(upperLeft, lowerRight); }
 
+    /**
+     * @return false for 2D bounds, whose {@link #getDepth()} must not be called.
+     */
+    public boolean hasDepth() { return depth != null; }
+
     public float getDepth() { return depth; }
 
     public DateTime getTime() { return time; }
 
+    /**
+     * @return length in pixels of the shortest side of the output image.
+     */
+    public int getOutputSize() { return outputSize; }
+
 	public String toString(){
 		if (depth == null) {
 			return "rect: " + getRect().toString();
@@ -0,0 +1,80 @@
+package com.sintef.featureserver.netcdf;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Coverage of one indexed netCDF file: its bounding box, time range and grid size, and the size
+ * and modification time it had when it was indexed.
+ */
+public final class CatalogEntry {
+    private final String filepath;
+    private final double minLat;
+    private final double maxLat;
+    private final double minLon;
+    private final double maxLon;
+    private final long startMillis;
+    private final long endMillis;
+    private final int gridSize;
+    private final long size;
+    private final long modified;
+
+    /**
+     * @param gridSize Horizontal resolution in meters.
+     * @param size File size in bytes.
+     * @param modified File modification time in millis.
+     */
+    public CatalogEntry(
+            final String filepath,
+            final double minLat,
+            final double maxLat,
+            final double minLon,
+            final double maxLon,
+            final long startMillis,
+            final long endMillis,
+            final int gridSize,
+            final long size,
+            final long modified) {
+        this.filepath = filepath;
+        this.minLat = minLat;
+        this.maxLat = maxLat;
+        this.minLon = minLon;
+        this.maxLon = maxLon;
+        this.startMillis = startMillis;
+        this.endMillis = endMillis;
+        this.gridSize = gridSize;
+        this.size = size;
+        this.modified = modified;
+    }
+
+    public String getFilepath() { return filepath; }
+
+    public double getMinLat() { return minLat; }
+
+    public double getMaxLat() { return maxLat; }
+
+    public double getMinLon() { return minLon; }
+
+    public double getMaxLon() { return maxLon; }
+
+    public long getStartMillis() { return startMillis; }
+
+    public long getEndMillis() { return endMillis; }
+
+    public DateTime getStartTime() { return new DateTime(startMillis, DateTimeZone.UTC); }
+
+    public DateTime getEndTime() { return new DateTime(endMillis, DateTimeZone.UTC); }
+
+    public int getGridSize() { return gridSize; }
+
+    public long getSize() { return size; }
+
+    public long getModified() { return modified; }
+
+    @Override
+    public String toString() {
+        return filepath + " [" + minLat + ", " + maxLat + "] x [" + minLon + ", " + maxLon + "], "
+                + getStartTime() + " - " + getEndTime() + ", " + gridSize + " m, "
+                + size + " bytes, modified " + new DateTime(modified, DateTimeZone.UTC);
+    }
+}
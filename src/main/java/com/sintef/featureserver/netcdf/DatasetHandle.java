@@ -0,0 +1,44 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.Closeable;
+import ucar.nc2.dt.GridDataset;
+
+/**
+ * A borrowed, open {@link GridDataset}. Obtained from {@link DatasetRegistry#acquire(String)}.
+ *
+ * The dataset is thread-confined: it must only be used by the thread that acquired it, and only
+ * until {@link #close()} is called, which returns it to the pool. Do not close the dataset itself.
+ *
+ * @author arve
+ */
+public class DatasetHandle implements Closeable {
+    private final DatasetRegistry.FilePool pool;
+    private final DatasetRegistry.PooledDataset pooled;
+    private boolean released = false;
+
+    DatasetHandle(final DatasetRegistry.FilePool pool, final DatasetRegistry.PooledDataset pooled) {
+        this.pool = pool;
+        this.pooled = pooled;
+    }
+
+    public GridDataset getDataset() {
+        if (released) {
+            throw new IllegalStateException("Dataset handle used after it was released.");
+        }
+        return pooled.dataset;
+    }
+
+    public String getFilename() { return pool.filename; }
+
+    /**
+     * Returns the dataset to the pool. Calling this more than once has no effect.
+     */
+    @Override
+    public void close() {
+        if (released) {
+            return;
+        }
+        released = true;
+        pool.release(pooled);
+    }
+}
@@ -0,0 +1,258 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+import ucar.nc2.dt.GridDataset;
+
+/**
+ * Keeps a bounded pool of open {@link GridDataset}s per file, so the header and coordinate
+ * systems of a file are parsed once instead of on every request.
+ *
+ * A dataset is handed out to one thread at a time through a {@link DatasetHandle}. When all
+ * datasets of a file are in use, callers wait until one is returned. Datasets that have been
+ * idle longer than the idle timeout are closed by a background thread.
+ *
+ * @author arve
+ */
+public class DatasetRegistry {
+    private static final Logger LOGGER = Logger.getLogger(DatasetRegistry.class.getName());
+
+    private final int maxDatasetsPerFile;
+    private final long idleTimeoutMillis;
+    private final Map<String, FilePool> pools = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService evictor;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong opens = new AtomicLong();
+    private final AtomicLong waits = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxDatasetsPerFile Upper bound of simultaneously open datasets for a single file.
+     * @param idleTimeoutSeconds Datasets not used for this long are closed.
+     */
+    public DatasetRegistry(final int maxDatasetsPerFile, final int idleTimeoutSeconds) {
+        if (maxDatasetsPerFile < 1) {
+            throw new IllegalArgumentException("Need at least one dataset per file.");
+        }
+        this.maxDatasetsPerFile = maxDatasetsPerFile;
+        this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(idleTimeoutSeconds);
+        this.evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "dataset-evictor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long period = Math.max(1000, idleTimeoutMillis / 2);
+        evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Borrows an open dataset for the given file, opening a new one if none are idle and the
+     * pool for the file is not full. Blocks while the pool is exhausted.
+     *
+     * @param filename File to open.
+     * @return Handle that must be closed (preferably with try-with-resources) when done.
+     * @throws IOException if the file could not be opened.
+     */
+    public DatasetHandle acquire(final String filename) throws IOException {
+        while (true) {
+            final FilePool pool = pools.computeIfAbsent(filename, FilePool::new);
+            final DatasetHandle handle = pool.acquire();
+            if (handle != null) {
+                return handle;
+            }
+            // The pool was retired while we were looking it up; try again with a fresh one.
+            pools.remove(filename, pool);
+        }
+    }
+
+    /**
+     * Closes all idle datasets of a file and makes sure the ones in flight are closed when
+     * they are returned. Use when the file has changed or been removed.
+     */
+    public void invalidate(final String filename) {
+        final FilePool pool = pools.remove(filename);
+        if (pool != null) {
+            pool.retire();
+        }
+    }
+
+    /**
+     * Closes every dataset and stops the eviction thread.
+     */
+    public void close() {
+        evictor.shutdownNow();
+        for (final String filename : pools.keySet()) {
+            invalidate(filename);
+        }
+    }
+
+    private void evictIdle() {
+        final long cutoff = System.currentTimeMillis() - idleTimeoutMillis;
+        for (final FilePool pool : pools.values()) {
+            if (pool.evictIdleSince(cutoff)) {
+                pools.remove(pool.filename, pool);
+            }
+        }
+    }
+
+    public JSONObject getStatistics() {
+        int open = 0;
+        int inFlight = 0;
+        for (final FilePool pool : pools.values()) {
+            synchronized (pool) {
+                open += pool.open;
+                inFlight += pool.inFlight;
+            }
+        }
+        return new JSONObject()
+                .put("files", pools.size())
+                .put("open", open)
+                .put("inFlight", inFlight)
+                .put("hits", hits.get())
+                .put("opens", opens.get())
+                .put("waits", waits.get())
+                .put("evictions", evictions.get());
+    }
+
+    /**
+     * An open dataset together with the time it was last returned to the pool.
+     */
+    static class PooledDataset {
+        final GridDataset dataset;
+        long lastUsed;
+
+        PooledDataset(final GridDataset dataset) {
+            this.dataset = dataset;
+        }
+    }
+
+    /**
+     * The datasets of a single file. All fields are guarded by the pool's monitor.
+     */
+    class FilePool {
+        final String filename;
+        private final Deque<PooledDataset> idle = new ArrayDeque<>();
+        // Number of datasets that are open or being opened, idle or in flight.
+        private int open = 0;
+        private int inFlight = 0;
+        private boolean retired = false;
+
+        FilePool(final String filename) {
+            this.filename = filename;
+        }
+
+        /**
+         * @return a handle, or null if the pool was retired and the caller should look up a
+         * new one.
+         */
+        DatasetHandle acquire() throws IOException {
+            synchronized (this) {
+                boolean waited = false;
+                while (!retired && idle.isEmpty() && open >= maxDatasetsPerFile) {
+                    if (!waited) {
+                        waits.incrementAndGet();
+                        waited = true;
+                    }
+                    try {
+                        wait();
+                    } catch (final InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for dataset " + filename, e);
+                    }
+                }
+                if (retired) {
+                    return null;
+                }
+                inFlight++;
+                if (!idle.isEmpty()) {
+                    hits.incrementAndGet();
+                    // Most recently used first, so the rest can go idle and be evicted.
+                    return new DatasetHandle(this, idle.pollFirst());
+                }
+                // Reserve a slot, then open outside the lock so other files' readers and
+                // idle datasets of this file are not held up by the header parsing.
+                open++;
+            }
+            try {
+                final GridDataset dataset = ucar.nc2.dt.grid.GridDataset.open(filename);
+                opens.incrementAndGet();
+                return new DatasetHandle(this, new PooledDataset(dataset));
+            } catch (final IOException | RuntimeException e) {
+                synchronized (this) {
+                    open--;
+                    inFlight--;
+                    notifyAll();
+                }
+                throw e;
+            }
+        }
+
+        void release(final PooledDataset pooled) {
+            synchronized (this) {
+                inFlight--;
+                if (!retired) {
+                    pooled.lastUsed = System.currentTimeMillis();
+                    idle.addFirst(pooled);
+                    notifyAll();
+                    return;
+                }
+                open--;
+            }
+            closeQuietly(pooled);
+        }
+
+        synchronized void retire() {
+            retired = true;
+            while (!idle.isEmpty()) {
+                open--;
+                closeQuietly(idle.pollFirst());
+            }
+            notifyAll();
+        }
+
+        /**
+         * Closes datasets idle since before the cutoff.
+         * @return true if the pool became empty and was retired.
+         */
+        synchronized boolean evictIdleSince(final long cutoff) {
+            final Iterator<PooledDataset> iterator = idle.descendingIterator();
+            while (iterator.hasNext()) {
+                final PooledDataset pooled = iterator.next();
+                if (pooled.lastUsed > cutoff) {
+                    break;
+                }
+                iterator.remove();
+                open--;
+                evictions.incrementAndGet();
+                closeQuietly(pooled);
+            }
+            if (open == 0 && inFlight == 0) {
+                retired = true;
+                notifyAll();
+                return true;
+            }
+            return false;
+        }
+    }
+
+    private static void closeQuietly(final PooledDataset pooled) {
+        try {
+            pooled.dataset.close();
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close dataset " + pooled.dataset.getLocationURI(), e);
+        }
+    }
+}
@@ -18,6 +18,7 @@ public enum Feature {
 	WIND_VELOCITY("w_east", "w_north"),
 	// Other
 	CURRENT_MAGNITUDE,
+	WIND_MAGNITUDE,
 	CURRENT_DIRECTION;
 
 	private final String xAxis;
@@ -0,0 +1,210 @@
+package com.sintef.featureserver.netcdf;
+
+import java.nio.FloatBuffer;
+import ucar.ma2.Array;
+
+/**
+ * A 2D grid of float values for one feature, stored flat in row major order.
+ *
+ * The grid is a view: it can wrap a cached slice, a memory-mapped overview or the storage of a
+ * netCDF {@link Array} without copying. Cell (row, column) is found at
+ * `offset + row * rowStride + column * columnStride` in the backing buffer. Rows run along the
+ * y axis of the source grid, columns along x.
+ *
+ * Instances are immutable, and the backing data must not be modified while a grid refers to it.
+ *
+ * @author arve
+ */
+public final class FeatureGrid {
+    private final FloatBuffer data;
+    private final int offset;
+    private final int width;
+    private final int height;
+    private final int rowStride;
+    private final int columnStride;
+    // Values equal to this (or NaN) have no data, i.e. land.
+    private final float fillValue;
+    // Added to every value read.
+    private final float valueOffset;
+    // Number of source grid cells per grid cell along each axis.
+    private final int decimation;
+    // {x0, dx, y0, dy}: x = x0 + column * dx, y = y0 + row * dy in the projection coordinates of
+    // the source grid. Null if unknown.
+    private final double[] geoTransform;
+
+    private FeatureGrid(
+            final FloatBuffer data,
+            final int offset,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int columnStride,
+            final float fillValue,
+            final float valueOffset,
+            final int decimation,
+            final double[] geoTransform) {
+        this.data = data;
+        this.offset = offset;
+        this.width = width;
+        this.height = height;
+        this.rowStride = rowStride;
+        this.columnStride = columnStride;
+        this.fillValue = fillValue;
+        this.valueOffset = valueOffset;
+        this.decimation = decimation;
+        this.geoTransform = geoTransform;
+    }
+
+    /**
+     * Wraps a dense row major array.
+     */
+    public static FeatureGrid wrap(final float[] values, final int width, final int height) {
+        if (values.length < width * height) {
+            throw new IllegalArgumentException("Not enough values for a " + width + "x" + height
+                    + " grid.");
+        }
+        return wrap(FloatBuffer.wrap(values), 0, width, height, width, 1);
+    }
+
+    /**
+     * Wraps (part of) a buffer.
+     */
+    public static FeatureGrid wrap(
+            final FloatBuffer data,
+            final int offset,
+            final int width,
+            final int height,
+            final int rowStride,
+            final int columnStride) {
+        return new FeatureGrid(data, offset, width, height, rowStride, columnStride,
+                Float.NaN, 0f, 1, null);
+    }
+
+    /**
+     * Wraps a 2D netCDF array. Float arrays are wrapped without copying, also when the array is
+     * a strided or permuted view. Other types are converted to a new float array.
+     *
+     * @param array 2D array with shape [y, x].
+     * @param fillValue Value marking missing data, in addition to NaN.
+     */
+    public static FeatureGrid fromArray(final Array array, final float fillValue) {
+        final int[] shape = array.getShape();
+        if (shape.length != 2) {
+            throw new IllegalArgumentException("Expected a 2D array, got rank " + shape.length);
+        }
+        final int height = shape[0];
+        final int width = shape[1];
+        if (array.getElementType() != float.class) {
+            final float[] values = (float[]) array.get1DJavaArray(float.class);
+            return wrap(values, width, height).withFillValue(fillValue);
+        }
+        // The index of a view is affine, so three elements are enough to find its layout.
+        final ucar.ma2.Index index = array.getIndex();
+        final int origin = index.set(0, 0).currentElement();
+        final int columnStride = width > 1 ? index.set(0, 1).currentElement() - origin : 1;
+        final int rowStride = height > 1 ? index.set(1, 0).currentElement() - origin : width;
+        final float[] storage = (float[]) array.getStorage();
+        return wrap(FloatBuffer.wrap(storage), origin, width, height, rowStride, columnStride)
+                .withFillValue(fillValue);
+    }
+
+    public int getWidth() { return width; }
+
+    public int getHeight() { return height; }
+
+    public int getRowStride() { return rowStride; }
+
+    public int getColumnStride() { return columnStride; }
+
+    public float getFillValue() { return fillValue; }
+
+    public int getDecimation() { return decimation; }
+
+    public double[] getGeoTransform() { return geoTransform; }
+
+    FloatBuffer buffer() { return data; }
+
+    /**
+     * @return index of a cell in {@link #buffer()}.
+     */
+    int indexOf(final int row, final int column) {
+        return offset + row * rowStride + column * columnStride;
+    }
+
+    float valueOffset() { return valueOffset; }
+
+    /**
+     * @return value at the cell, NaN or the fill value if there is no data.
+     */
+    public float get(final int row, final int column) {
+        return data.get(indexOf(row, column)) + valueOffset;
+    }
+
+    /**
+     * @return true if the value (as returned by {@link #get}) marks a cell without data.
+     */
+    public boolean isMissing(final float value) {
+        return Float.isNaN(value) || value == fillValue + valueOffset;
+    }
+
+    /**
+     * A view of a window of this grid, taking every `step`'th cell.
+     *
+     * @param rowStart First row.
+     * @param rowEnd Last row (inclusive).
+     * @param columnStart First column.
+     * @param columnEnd Last column (inclusive).
+     * @param step Take every step'th cell along both axes.
+     */
+    public FeatureGrid window(
+            final int rowStart,
+            final int rowEnd,
+            final int columnStart,
+            final int columnEnd,
+            final int step) {
+        if (rowStart < 0 || columnStart < 0 || rowEnd >= height || columnEnd >= width
+                || rowEnd < rowStart || columnEnd < columnStart || step < 1) {
+            throw new IllegalArgumentException("Window outside of the " + width + "x" + height
+                    + " grid.");
+        }
+        final double[] windowTransform = geoTransform == null ? null : new double[] {
+                geoTransform[0] + columnStart * geoTransform[1],
+                geoTransform[1] * step,
+                geoTransform[2] + rowStart * geoTransform[3],
+                geoTransform[3] * step};
+        return new FeatureGrid(
+                data,
+                offset + rowStart * rowStride + columnStart * columnStride,
+                (columnEnd - columnStart) / step + 1,
+                (rowEnd - rowStart) / step + 1,
+                rowStride * step,
+                columnStride * step,
+                fillValue,
+                valueOffset,
+                decimation * step,
+                windowTransform);
+    }
+
+    /**
+     * @return a view where `delta` is added to every value. For unit conversions.
+     */
+    public FeatureGrid offsetValues(final float delta) {
+        return new FeatureGrid(data, offset, width, height, rowStride, columnStride,
+                fillValue, valueOffset + delta, decimation, geoTransform);
+    }
+
+    public FeatureGrid withFillValue(final float fill) {
+        return new FeatureGrid(data, offset, width, height, rowStride, columnStride,
+                fill, valueOffset, decimation, geoTransform);
+    }
+
+    public FeatureGrid withDecimation(final int cellsPerValue) {
+        return new FeatureGrid(data, offset, width, height, rowStride, columnStride,
+                fillValue, valueOffset, cellsPerValue, geoTransform);
+    }
+
+    public FeatureGrid withGeoTransform(final double[] transform) {
+        return new FeatureGrid(data, offset, width, height, rowStride, columnStride,
+                fillValue, valueOffset, decimation, transform);
+    }
+}
@@ -0,0 +1,218 @@
+package com.sintef.featureserver.netcdf;
+
+import com.sintef.featureserver.util.IntervalTree;
+import com.sintef.featureserver.util.StrTree;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import org.joda.time.DateTime;
+import org.json.JSONObject;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+/**
+ * In-memory copy of the {@link NetCdfIndexer}, used to pick the files a request reads from
+ * without touching the database or the file system.
+ *
+ * The coverage of the files is kept in an STR packed R-tree and their time ranges in an interval
+ * tree. Both are immutable and swapped together as one snapshot. Index changes update the entries
+ * at once, and the snapshot is rebuilt by the first lookup after a change, so a scan adding
+ * thousands of files does not rebuild the trees for each of them.
+ *
+ * @author arve
+ */
+public class FileCatalog implements IndexListener {
+    private static final Comparator<CatalogEntry> NEWEST_FIRST
+            = Comparator.comparingLong(CatalogEntry::getStartMillis).reversed();
+
+    private final Map<String, CatalogEntry> entries = new ConcurrentHashMap<>();
+    private final AtomicBoolean stale = new AtomicBoolean(false);
+    private volatile Snapshot snapshot = new Snapshot(Collections.<CatalogEntry>emptyList());
+    private volatile long changedAt = 0;
+
+    /**
+     * Replaces the catalog with the given entries, e.g. from {@link NetCdfIndexer#loadCatalog()}.
+     */
+    public void load(final Collection<CatalogEntry> catalogEntries) {
+        entries.clear();
+        for (final CatalogEntry entry : catalogEntries) {
+            entries.put(entry.getFilepath(), entry);
+        }
+        changedAt = System.currentTimeMillis();
+        stale.set(true);
+    }
+
+    @Override
+    public void indexChanged(final IndexEvent event) {
+        if (event.getType() == IndexEvent.Type.REMOVED) {
+            entries.remove(event.getFilepath());
+        } else {
+            entries.put(event.getFilepath(), event.getCoverage());
+        }
+        changedAt = System.currentTimeMillis();
+        stale.set(true);
+    }
+
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return a string that changes when the coverage of the catalog does. It is derived from
+     * the entries, so it is the same after a restart if the files are.
+     */
+    public String getVersion() {
+        return current().version;
+    }
+
+    /**
+     * @return the files in the catalog, in no particular order.
+     */
+    public List<CatalogEntry> getEntries() {
+        return current().entries;
+    }
+
+    /**
+     * @return the smallest rectangle covering all the files, or null if the catalog is empty.
+     */
+    public LatLonRect getBounds() {
+        return current().bounds;
+    }
+
+    /**
+     * @return the grid size of the finest file in meters, or 0 if the catalog is empty.
+     */
+    public int getFinestGridSize() {
+        return current().finestGridSize;
+    }
+
+    /**
+     * @return when the catalog last changed, in millis. 0 if it never has.
+     */
+    public long getChangedAt() {
+        return changedAt;
+    }
+
+    /**
+     * @param time Time that must be covered, or null for any time.
+     * @return the files that intersect the rectangle at the time, newest first.
+     */
+    public List<CatalogEntry> find(final LatLonRect rect, final DateTime time) {
+        final Snapshot current = current();
+        final List<CatalogEntry> result;
+        if (rect.crossDateline()) {
+            // Split into the parts east and west of the date line.
+            result = current.spatial.query(
+                    rect.getLonMin(), rect.getLatMin(), 180, rect.getLatMax());
+            for (final CatalogEntry entry : current.spatial.query(
+                    -180, rect.getLatMin(), rect.getLonMax(), rect.getLatMax())) {
+                if (!result.contains(entry)) {
+                    result.add(entry);
+                }
+            }
+        } else {
+            result = current.spatial.query(
+                    rect.getLonMin(), rect.getLatMin(), rect.getLonMax(), rect.getLatMax());
+        }
+        return filterByTime(current, result, time);
+    }
+
+    /**
+     * @param time Time that must be covered, or null for any time.
+     * @return the files that contain the point at the time, newest first.
+     */
+    public List<CatalogEntry> find(final LatLonPoint point, final DateTime time) {
+        final Snapshot current = current();
+        return filterByTime(current, current.spatial.query(
+                point.getLongitude(), point.getLatitude(),
+                point.getLongitude(), point.getLatitude()), time);
+    }
+
+    /**
+     * @return the files that overlap the time range anywhere, ordered by start.
+     */
+    public List<CatalogEntry> find(final DateTime from, final DateTime to) {
+        return current().temporal.query(from.getMillis(), to.getMillis());
+    }
+
+    public JSONObject getStatistics() {
+        return new JSONObject()
+                .put("files", entries.size())
+                .put("indexedFiles", snapshot.spatial.size())
+                .put("stale", stale.get());
+    }
+
+    private static List<CatalogEntry> filterByTime(
+            final Snapshot current,
+            final List<CatalogEntry> candidates,
+            final DateTime time) {
+        if (time != null && !candidates.isEmpty()) {
+            final List<CatalogEntry> atTime = current.temporal.query(time.getMillis());
+            // Both lists are usually short; keep the ones in both.
+            final Set<CatalogEntry> covering
+                    = Collections.newSetFromMap(new IdentityHashMap<CatalogEntry, Boolean>());
+            covering.addAll(atTime);
+            candidates.retainAll(covering);
+        }
+        candidates.sort(NEWEST_FIRST);
+        return candidates;
+    }
+
+    private Snapshot current() {
+        if (stale.get()) {
+            synchronized (this) {
+                if (stale.getAndSet(false)) {
+                    snapshot = new Snapshot(new ArrayList<>(entries.values()));
+                }
+            }
+        }
+        return snapshot;
+    }
+
+    /**
+     * The spatial and temporal index of the same entries, and their extent.
+     */
+    private static final class Snapshot {
+        final List<CatalogEntry> entries;
+        final StrTree<CatalogEntry> spatial;
+        final IntervalTree<CatalogEntry> temporal;
+        final LatLonRect bounds;
+        final int finestGridSize;
+        final String version;
+
+        Snapshot(final List<CatalogEntry> catalogEntries) {
+            this.entries = Collections.unmodifiableList(catalogEntries);
+            // Sum of the entry hashes, so it does not depend on their order.
+            long hash = 0;
+            for (final CatalogEntry entry : catalogEntries) {
+                hash += entry.toString().hashCode() * 0x9E3779B97F4A7C15L;
+            }
+            this.version = catalogEntries.size() + "-" + Long.toHexString(hash);
+            this.spatial = new StrTree<>(catalogEntries, entry -> new double[] {
+                    entry.getMinLon(), entry.getMinLat(), entry.getMaxLon(), entry.getMaxLat()});
+            this.temporal = new IntervalTree<>(catalogEntries,
+                    CatalogEntry::getStartMillis, CatalogEntry::getEndMillis);
+
+            double minLat = 90, maxLat = -90, minLon = 180, maxLon = -180;
+            int finest = Integer.MAX_VALUE;
+            for (final CatalogEntry entry : catalogEntries) {
+                minLat = Math.min(minLat, entry.getMinLat());
+                maxLat = Math.max(maxLat, entry.getMaxLat());
+                minLon = Math.min(minLon, entry.getMinLon());
+                maxLon = Math.max(maxLon, entry.getMaxLon());
+                finest = Math.min(finest, entry.getGridSize());
+            }
+            this.bounds = catalogEntries.isEmpty() ? null : new LatLonRect(
+                    new LatLonPointImpl(minLat, minLon), new LatLonPointImpl(maxLat, maxLon));
+            this.finestGridSize = catalogEntries.isEmpty() ? 0 : finest;
+        }
+    }
+}
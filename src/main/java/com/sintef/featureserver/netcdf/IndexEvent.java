@@ -0,0 +1,36 @@
+package com.sintef.featureserver.netcdf;
+
+/**
+ * A committed change of one file in the {@link NetCdfIndexer}.
+ */
+public final class IndexEvent {
+    public enum Type {
+        ADDED,
+        CHANGED,
+        REMOVED
+    }
+
+    private final Type type;
+    private final String filepath;
+    private final CatalogEntry coverage;
+
+    IndexEvent(final Type type, final String filepath, final CatalogEntry coverage) {
+        this.type = type;
+        this.filepath = filepath;
+        this.coverage = coverage;
+    }
+
+    public Type getType() { return type; }
+
+    public String getFilepath() { return filepath; }
+
+    /**
+     * @return the new coverage of an added or changed file, null for a removed one.
+     */
+    public CatalogEntry getCoverage() { return coverage; }
+
+    @Override
+    public String toString() {
+        return type + " " + filepath;
+    }
+}
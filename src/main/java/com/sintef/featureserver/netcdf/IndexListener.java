@@ -0,0 +1,12 @@
+package com.sintef.featureserver.netcdf;
+
+/**
+ * Told about every change of the {@link NetCdfIndexer}, e.g. to drop cached data of a file that
+ * changed.
+ */
+public interface IndexListener {
+    /**
+     * Called on the indexing thread after the change is committed. Must not block.
+     */
+    void indexChanged(IndexEvent event);
+}
@@ -0,0 +1,243 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Keeps the {@link NetCdfIndexer} up to date while files are copied into the data directory.
+ *
+ * A watch service reports the netCDF files that are created or modified anywhere below the
+ * root. They are indexed once they are stable: their size and modification time have not
+ * changed between two checks, and they have not been modified for the quiet period, so a file
+ * is not read while it is still being copied. Deleted files are removed from the index at once.
+ *
+ * Watch services can lose events, e.g. on overflow or on network file systems, so a full
+ * {@link NetCdfIndexer#scan()} also runs at startup and then periodically to reconcile the
+ * index with the directory.
+ *
+ * @author arve
+ */
+public class IndexWatcher {
+    private static final Logger LOGGER = Logger.getLogger(IndexWatcher.class.getName());
+    private static final long CHECK_INTERVAL_MILLIS = 1000;
+
+    private final Path root;
+    private final long quietMillis;
+    private final long reconcileMillis;
+    private final WatchService watchService;
+    private final Map<WatchKey, Path> directories = new ConcurrentHashMap<>();
+    // Files that changed and are not indexed yet, with their state at the last check.
+    private final Map<Path, Observation> pending = new ConcurrentHashMap<>();
+    // Does all the index work, so changes are applied in the order they were seen.
+    private final ScheduledExecutorService maintenance;
+    private final Thread watcher;
+
+    /**
+     * @param root Directory watched, with its subdirectories.
+     * @param quietSeconds A file is indexed once it has not been modified for this long.
+     * @param reconcileSeconds Time between full scans.
+     */
+    public IndexWatcher(final Path root, final int quietSeconds, final int reconcileSeconds)
+            throws IOException {
+        this.root = root;
+        this.quietMillis = TimeUnit.SECONDS.toMillis(quietSeconds);
+        this.reconcileMillis = TimeUnit.SECONDS.toMillis(Math.max(1, reconcileSeconds));
+        this.watchService = FileSystems.getDefault().newWatchService();
+        this.maintenance = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            final Thread thread = new Thread(runnable, "index-maintenance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.watcher = new Thread(this::watch, "index-watcher");
+        watcher.setDaemon(true);
+    }
+
+    /**
+     * Starts watching, then scans the whole directory in the background.
+     */
+    public void start() throws IOException {
+        // Register first, so nothing written during the initial scan is missed.
+        register(root, false);
+        watcher.start();
+        maintenance.scheduleWithFixedDelay(
+                this::reconcile, 0, reconcileMillis, TimeUnit.MILLISECONDS);
+        maintenance.scheduleWithFixedDelay(this::indexStableFiles,
+                CHECK_INTERVAL_MILLIS, CHECK_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    public void close() {
+        watcher.interrupt();
+        maintenance.shutdownNow();
+        try {
+            watchService.close();
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to close the watch service", e);
+        }
+    }
+
+    private void watch() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (final InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            final Path directory = directories.get(key);
+            for (final WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW || directory == null) {
+                    maintenance.execute(this::reconcile);
+                    continue;
+                }
+                final Path path = directory.resolve((Path) event.context());
+                if (event.kind() == StandardWatchEventKinds.ENTRY_DELETE) {
+                    if (NetCdfIndexer.isNetCdfFile(path)) {
+                        pending.remove(path);
+                        maintenance.execute(() -> remove(path));
+                    }
+                } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+                    if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE) {
+                        try {
+                            register(path, true);
+                        } catch (final IOException e) {
+                            LOGGER.log(Level.WARNING, "Could not watch " + path, e);
+                        }
+                    }
+                } else if (NetCdfIndexer.isNetCdfFile(path)) {
+                    pending.putIfAbsent(path, new Observation());
+                }
+            }
+            if (!key.reset()) {
+                // The directory is gone. Let a scan remove whatever was indexed below it.
+                directories.remove(key);
+                maintenance.execute(this::reconcile);
+            }
+        }
+    }
+
+    /**
+     * Watches a directory and its subdirectories.
+     *
+     * @param markFiles true to also queue the netCDF files already in them, for directories
+     * that appeared (e.g. were moved in) after the watch started.
+     */
+    private void register(final Path directory, final boolean markFiles) throws IOException {
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(
+                    final Path dir, final BasicFileAttributes attrs) throws IOException {
+                directories.put(dir.register(watchService,
+                        StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY,
+                        StandardWatchEventKinds.ENTRY_DELETE), dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attrs) {
+                if (markFiles && NetCdfIndexer.isNetCdfFile(file)) {
+                    pending.putIfAbsent(file, new Observation());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    /**
+     * Indexes the pending files that have stopped changing.
+     */
+    private void indexStableFiles() {
+        final long now = System.currentTimeMillis();
+        final Iterator<Map.Entry<Path, Observation>> entries = pending.entrySet().iterator();
+        while (entries.hasNext()) {
+            final Map.Entry<Path, Observation> entry = entries.next();
+            final Path path = entry.getKey();
+            final BasicFileAttributes attributes;
+            try {
+                attributes = Files.readAttributes(path, BasicFileAttributes.class);
+            } catch (final NoSuchFileException e) {
+                entries.remove(); // The delete event removes it from the index.
+                continue;
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Could not check " + path, e);
+                entries.remove();
+                continue;
+            }
+            final long modified = attributes.lastModifiedTime().toMillis();
+            if (!entry.getValue().isUnchanged(attributes.size(), modified)
+                    || now - modified < quietMillis) {
+                entry.setValue(new Observation(attributes.size(), modified));
+                continue;
+            }
+            entries.remove();
+            try {
+                if (NetCdfIndexer.indexFile(path.toString())) {
+                    LOGGER.info("Indexed " + path);
+                }
+            } catch (final Exception e) {
+                // A later scan tries again.
+                LOGGER.log(Level.WARNING, "Could not index " + path, e);
+            }
+        }
+    }
+
+    private void remove(final Path path) {
+        try {
+            if (NetCdfIndexer.removeFile(path.toString())) {
+                LOGGER.info("Removed " + path + " from the index");
+            }
+        } catch (final Exception e) {
+            LOGGER.log(Level.WARNING, "Could not remove " + path + " from the index", e);
+        }
+    }
+
+    private void reconcile() {
+        try {
+            NetCdfIndexer.scan();
+        } catch (final RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Scanning " + root + " failed", e);
+        }
+    }
+
+    /**
+     * Size and modification time of a pending file at the last check.
+     */
+    private static final class Observation {
+        final long size;
+        final long modified;
+
+        // Not checked yet.
+        Observation() {
+            this(-1, -1);
+        }
+
+        Observation(final long size, final long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        boolean isUnchanged(final long size, final long modified) {
+            return this.size == size && this.modified == modified;
+        }
+    }
+}
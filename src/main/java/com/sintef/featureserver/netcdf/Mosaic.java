@@ -0,0 +1,165 @@
+package com.sintef.featureserver.netcdf;
+
+import java.util.List;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+import ucar.unidata.geoloc.ProjectionImpl;
+import ucar.unidata.geoloc.ProjectionPointImpl;
+
+/**
+ * Composites areas read from several files, e.g. nested model grids of different resolutions,
+ * onto one regular latitude/longitude grid over the requested area.
+ *
+ * Every output cell takes its value from the first source, in priority order, that has data at
+ * the center of the cell. The primary grid wins where it has data, and its holes and the parts
+ * of the area outside it are filled from the others. Only the cells a source has no data for
+ * are looked up in the next one.
+ *
+ * Like the other grids, rows run south to north. The geo-transform is in degrees of longitude
+ * and latitude.
+ *
+ * @author arve
+ */
+final class Mosaic {
+    private final List<Source> sources;
+    private final int width;
+    private final int height;
+    private final double west;
+    private final double south;
+    private final double lonStep;
+    private final double latStep;
+    private final int decimation;
+
+    /**
+     * @param rect Area covered by the output grid.
+     * @param cellMeters Wanted size of an output cell.
+     * @param primaryResolution Grid size of the first source in meters.
+     * @param sources Grids to composite, highest priority first.
+     */
+    Mosaic(
+            final LatLonRect rect,
+            final double cellMeters,
+            final double primaryResolution,
+            final List<Source> sources) {
+        this.sources = sources;
+        final double centerLat = Math.toRadians((rect.getLatMin() + rect.getLatMax()) / 2);
+        final double latCell = cellMeters / NetCdfManager.METERS_PER_DEGREE_LATITUDE;
+        final double lonCell = latCell / Math.max(0.01, Math.cos(centerLat));
+        this.width = Math.max(1, (int) Math.ceil(rect.getWidth() / lonCell));
+        this.height = Math.max(1, (int) Math.ceil(rect.getHeight() / latCell));
+        this.west = rect.getLonMin();
+        this.south = rect.getLatMin();
+        // Stretch the cells slightly so the grid covers the area exactly.
+        this.lonStep = rect.getWidth() / width;
+        this.latStep = rect.getHeight() / height;
+        this.decimation = Math.max(1, (int) Math.round(cellMeters / primaryResolution));
+    }
+
+    FeatureGrid scalar() {
+        final float[] values = new float[width * height];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            final double lat = south + (row + 0.5) * latStep;
+            for (int column = 0; column < width; column++) {
+                final double lon = west + (column + 0.5) * lonStep;
+                float value = Float.NaN;
+                for (final Source source : sources) {
+                    if (source.locate(lat, lon)) {
+                        final float candidate = source.x.get(source.row, source.column);
+                        if (!source.x.isMissing(candidate)) {
+                            value = candidate;
+                            break;
+                        }
+                    }
+                }
+                values[i++] = value;
+            }
+        }
+        return FeatureGrid.wrap(values, width, height)
+                .withDecimation(decimation)
+                .withGeoTransform(geoTransform());
+    }
+
+    /**
+     * Composites both components, taking them from the same source in every cell.
+     */
+    VectorGrid vector() {
+        final float[] xValues = new float[width * height];
+        final float[] yValues = new float[width * height];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            final double lat = south + (row + 0.5) * latStep;
+            for (int column = 0; column < width; column++) {
+                final double lon = west + (column + 0.5) * lonStep;
+                float u = Float.NaN;
+                float v = Float.NaN;
+                for (final Source source : sources) {
+                    if (source.locate(lat, lon)) {
+                        final float x = source.x.get(source.row, source.column);
+                        final float y = source.y.get(source.row, source.column);
+                        if (!source.x.isMissing(x) && !source.y.isMissing(y)) {
+                            u = x;
+                            v = y;
+                            break;
+                        }
+                    }
+                }
+                xValues[i] = u;
+                yValues[i++] = v;
+            }
+        }
+        return new VectorGrid(
+                FeatureGrid.wrap(xValues, width, height)
+                        .withDecimation(decimation)
+                        .withGeoTransform(geoTransform()),
+                FeatureGrid.wrap(yValues, width, height)
+                        .withDecimation(decimation)
+                        .withGeoTransform(geoTransform()));
+    }
+
+    private double[] geoTransform() {
+        return new double[] {west + lonStep / 2, lonStep, south + latStep / 2, latStep};
+    }
+
+    /**
+     * An area read from one file, with the projection to find the cell at a location. Not
+     * thread safe: the last located cell is kept in the instance.
+     */
+    static final class Source {
+        final FeatureGrid x;
+        // Second component of a vector feature, null for scalars.
+        final FeatureGrid y;
+        private final ProjectionImpl projection;
+        private final double[] geoTransform;
+        private final LatLonPointImpl latLon = new LatLonPointImpl();
+        private final ProjectionPointImpl projected = new ProjectionPointImpl();
+        int row;
+        int column;
+
+        /**
+         * @param x The (first component of the) area, with a geo-transform.
+         * @param y Second component over the same cells, or null.
+         * @param projection Projection of the grid the area was read from.
+         */
+        Source(final FeatureGrid x, final FeatureGrid y, final ProjectionImpl projection) {
+            this.x = x;
+            this.y = y;
+            this.projection = projection;
+            this.geoTransform = x.getGeoTransform();
+        }
+
+        /**
+         * Finds the cell containing a location, and keeps it in {@link #row} and
+         * {@link #column}.
+         *
+         * @return false if the location is outside of the area.
+         */
+        boolean locate(final double lat, final double lon) {
+            latLon.set(lat, lon);
+            projection.latLonToProj(latLon, projected);
+            column = (int) Math.round((projected.getX() - geoTransform[0]) / geoTransform[1]);
+            row = (int) Math.round((projected.getY() - geoTransform[2]) / geoTransform[3]);
+            return row >= 0 && row < x.getHeight() && column >= 0 && column < x.getWidth();
+        }
+    }
+}
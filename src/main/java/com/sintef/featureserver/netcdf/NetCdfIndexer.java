@@ -1,9 +1,12 @@
 package com.sintef.featureserver.netcdf;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.InternalServerException;
 import org.joda.time.DateTime;
 import org.joda.time.format.DateTimeFormat;
 import org.joda.time.format.DateTimeFormatter;
+import org.json.JSONArray;
+import org.json.JSONObject;
 import org.sqlite.SQLiteConfig;
 import ucar.ma2.InvalidRangeException;
 import ucar.ma2.Section;
@@ -16,22 +19,55 @@ import java.nio.file.*;
 import java.nio.file.attribute.BasicFileAttributes;
 import java.sql.*;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 /**
- * Uses an sqlite database with the spatialite extension to index the area and time covered by netCDF files.
- * The index can be queried to list all files that intersect a rectangle at a specified time
+ * Uses an sqlite database to index the area and time covered by netCDF files.
+ * Requests are routed through the {@link FileCatalog}, which is loaded from the index at startup
+ * and then follows its changes.
+ *
+ * The bounding box, time range and grid size of each file is kept in the dataset table. Lookups
+ * are done in memory by the catalog, so the table is only read whole, at startup.
+ *
+ * The size and modification time of each file is stored with it, so a scan re-indexes the files
+ * that changed and drops the ones that are gone. Every change is published to the
+ * {@link IndexListener}s once it is committed.
  *
  * Created by Emil on 10.11.2014.
  */
 public class NetCdfIndexer {
-    static final String scanningRoot = "C:/kproj6/";        //TODO: make this a parameter using @Path in FeatureServer.java
-    static final String databasePath = "jdbc:sqlite:sinmod.sqlite";
+    private static final Logger LOGGER = Logger.getLogger(NetCdfIndexer.class.getName());
+    // Files inserted per transaction during a scan.
+    private static final int BATCH_SIZE = 500;
+
     static Connection connection = null;
+    private static PreparedStatement selectStateStatement;
+    private static PreparedStatement insertDatasetStatement;
+    private static PreparedStatement deleteDatasetStatement;
 
+    private static final List<IndexListener> listeners = new CopyOnWriteArrayList<>();
+    // Changes in the uncommitted batch, published after the commit.
+    private static final List<IndexEvent> batchEvents = new ArrayList<>();
 
-    public static void initialize(){
-        SQLiteConfig config = new SQLiteConfig();
-        config.enableLoadExtension(true);
+    public static synchronized void initialize(){
+        final SQLiteConfig config = new SQLiteConfig();
+        // Readers are not blocked by a scan writing, and commits are cheap.
+        config.setJournalMode(SQLiteConfig.JournalMode.WAL);
+        config.setSynchronous(SQLiteConfig.SynchronousMode.NORMAL);
 
         try {
             Class.forName("org.sqlite.JDBC");
@@ -40,97 +76,241 @@ public class NetCdfIndexer {
         }
 
         try {
-            connection = DriverManager.getConnection(databasePath, config.toProperties());
+            connection = DriverManager.getConnection(
+                    "jdbc:sqlite:" + FeatureServer.indexDatabase, config.toProperties());
         } catch (SQLException e) {
             throw new InternalServerException("Failed to connect to/create indexing database");
         }
 
-        try {
-            Statement statement = connection.createStatement();
-            statement.executeQuery("SELECT load_extension('spatialite');");
-            statement.close();
+        try (final Statement statement = connection.createStatement()) {
+            if (lacksColumn(statement, "dataset", "min_lat")) {
+                // Written by an older version. The next scan indexes the files again.
+                statement.executeUpdate("DROP TABLE IF EXISTS dataset_bounds");
+                statement.executeUpdate("DROP TABLE IF EXISTS dataset");
+            }
+            statement.executeUpdate("CREATE TABLE IF NOT EXISTS dataset ("
+                    + "id INTEGER PRIMARY KEY, "
+                    + "filepath TEXT NOT NULL UNIQUE, "
+                    + "min_lat REAL NOT NULL, "
+                    + "max_lat REAL NOT NULL, "
+                    + "min_lon REAL NOT NULL, "
+                    + "max_lon REAL NOT NULL, "
+                    + "start_time INTEGER NOT NULL, " // Seconds since the epoch
+                    + "end_time INTEGER NOT NULL, "
+                    + "gridsize INTEGER NOT NULL, "
+                    + "size INTEGER NOT NULL, " // Bytes
+                    + "modified INTEGER NOT NULL)"); // Millis since the epoch
+
+            selectStateStatement = connection.prepareStatement(
+                    "SELECT size, modified FROM dataset WHERE filepath = ?");
+            insertDatasetStatement = connection.prepareStatement("INSERT INTO dataset ("
+                    + "filepath, min_lat, max_lat, min_lon, max_lon, "
+                    + "start_time, end_time, gridsize, size, modified) "
+                    + "VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)");
+            deleteDatasetStatement
+                    = connection.prepareStatement("DELETE FROM dataset WHERE filepath = ?");
         } catch (SQLException e) {
-            throw new InternalServerException("Failed to load spatialite extension");
+            throw new InternalServerException("Failed to create the index tables", e);
         }
+    }
 
+    /**
+     * Whether the table exists, but without the column.
+     */
+    private static boolean lacksColumn(
+            final Statement statement,
+            final String table,
+            final String column) throws SQLException {
+        try (final ResultSet rs = statement.executeQuery(
+                "SELECT 1 FROM sqlite_master WHERE type = 'table' AND name = '" + table + "'")) {
+            if (!rs.next()) {
+                return false;
+            }
+        }
+        try (final ResultSet rs = statement.executeQuery("PRAGMA table_info(" + table + ")")) {
+            while (rs.next()) {
+                if (column.equals(rs.getString("name"))) {
+                    return false;
+                }
+            }
+        }
+        return true;
     }
 
     /**
-     * Returns a list of all the netCDF files in the index that intersect with a specified rectangle at a specified time
-     * @param time the specified time
-     * @param startLat top edge of the rectangle
-     * @param endLat bottom edge of the rectangle
-     * @param startLon left edge of the rectangle
-     * @param endLon right edge of the rectangle
-     * @return ArrayList<String> of filepaths of all netCDF that intersect the requested rectangle and time
+     * Registers a listener for the changes committed from now on.
      */
-    static ArrayList<String> query(DateTime time, double startLat, double endLat, double startLon, double endLon)
-            throws SQLException {
-        Statement statement = connection.createStatement();
-        String statementString;
-        ResultSet rs;
-
-        String intersectsInSpace = "intersects(XYt.coverage, " +
-                "GeomFromText('POLYGON((" +
-                startLon + " " + startLat + ", " +
-                endLon   + " " + startLat + ", " +
-                endLon   + " " + endLat   + ", " +
-                startLon + " " + endLat   + ", " +
-                startLon + " " + startLat + "))', 33333))";
-
-        String intersectsInTime = "intersects(XYt.time, GeomFromText('POINT(0 " + time.getMillis()/1000 + ")', 33333))";
-
-        statementString = "SELECT filepath " +
-                "FROM dataset_XY_time AS XYt " +
-                "WHERE " + intersectsInSpace +
-                " AND " + intersectsInTime + ";";
-
-        rs = statement.executeQuery(statementString);
-        ArrayList<String> result = new ArrayList<String>();
-        while (rs.next()) {
-            String filepath = rs.getString("filepath");
-            result.add(filepath);
-        }
-        statement.close();
+    public static void addListener(final IndexListener listener) {
+        listeners.add(listener);
+    }
 
+    /**
+     * @return the coverage of every indexed file, to load the {@link FileCatalog}.
+     */
+    public static synchronized List<CatalogEntry> loadCatalog() {
+        final List<CatalogEntry> result = new ArrayList<>();
+        try (final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery("SELECT filepath, "
+                     + "min_lat, max_lat, min_lon, max_lon, start_time, end_time, gridsize, "
+                     + "size, modified FROM dataset")) {
+            while (rs.next()) {
+                result.add(new CatalogEntry(
+                        rs.getString(1),
+                        rs.getDouble(2),
+                        rs.getDouble(3),
+                        rs.getDouble(4),
+                        rs.getDouble(5),
+                        rs.getLong(6) * 1000,
+                        rs.getLong(7) * 1000,
+                        rs.getInt(8),
+                        rs.getLong(9),
+                        rs.getLong(10)));
+            }
+        } catch (SQLException e) {
+            throw new InternalServerException("Failed to read the index", e);
+        }
         return result;
     }
 
     /**
-     * Adds any netCDF file inside scanningRoot to the index
-     * Any already indexed will be skipped
+     * Brings the index in line with the netCDF files inside the data directory: new files are
+     * added, files whose size or modification time changed are re-indexed, and files that are
+     * gone are removed. Files modified within the last index-quiet-seconds may still be being
+     * written and are left for a later scan.
+     *
+     * The headers are read on a pool of index-threads workers. This thread is the only writer:
+     * it takes the results as they complete and writes them in batches, one transaction per
+     * batch. A file that cannot be read is recorded and skipped.
+     *
+     * @return counts, timing and the files that failed.
      */
-    public static void scan(){
-        ArrayList<String> netCDFFiles = null;
+    public static synchronized JSONObject scan(){
+        final long started = System.nanoTime();
+        final Map<String, FileState> netCDFFiles;
+        final Map<String, FileState> indexed;
         try {
-            netCDFFiles = listNetCDFFilesIn(scanningRoot);
+            netCDFFiles = listNetCDFFilesIn(FeatureServer.dataDir);
+            indexed = indexedFiles();
+        } catch (IOException | SQLException e) {
+            throw new InternalServerException("Scan failed, " + e.toString(), e);
+        }
 
-            for(String filepath : netCDFFiles){
-                addFile(filepath);
+        final long stableBefore = System.currentTimeMillis()
+                - TimeUnit.SECONDS.toMillis(FeatureServer.indexQuietSeconds);
+        final AtomicInteger threadCount = new AtomicInteger();
+        final ExecutorService readers = Executors.newFixedThreadPool(
+                Math.max(1, FeatureServer.indexThreads), runnable -> {
+                    final Thread thread
+                            = new Thread(runnable, "index-reader-" + threadCount.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        final CompletionService<Entry> entries = new ExecutorCompletionService<>(readers);
+        final Map<Future<Entry>, String> pathsByTask = new HashMap<>();
+        int unstable = 0;
+        for (final Map.Entry<String, FileState> file : netCDFFiles.entrySet()) {
+            final String filepath = file.getKey();
+            final FileState state = file.getValue();
+            if (state.equals(indexed.get(filepath))) {
+                continue;
+            }
+            if (state.modified > stableBefore) {
+                unstable++;
+                continue;
             }
+            pathsByTask.put(entries.submit(() -> readEntry(filepath, state)), filepath);
+        }
 
-        } catch (IOException | SQLException | InvalidRangeException e) {
-            System.out.println(e);
-            throw new InternalServerException("Scan failed, " + e.toString());
+        final JSONArray failures = new JSONArray();
+        int added = 0;
+        int changed = 0;
+        int removed = 0;
+        try {
+            connection.setAutoCommit(false);
+            try {
+                int pending = 0;
+                for (final String filepath : indexed.keySet()) {
+                    if (!netCDFFiles.containsKey(filepath)) {
+                        removeBatch(filepath);
+                        removed++;
+                        pending++;
+                    }
+                }
+                for (int i = 0; i < pathsByTask.size(); i++) {
+                    final Future<Entry> task = entries.take();
+                    final Entry entry;
+                    try {
+                        entry = task.get();
+                    } catch (final ExecutionException e) {
+                        final String filepath = pathsByTask.get(task);
+                        LOGGER.log(Level.WARNING, "Could not index " + filepath, e.getCause());
+                        failures.put(new JSONObject()
+                                .put("file", filepath)
+                                .put("error", String.valueOf(e.getCause())));
+                        continue;
+                    }
+                    final boolean replace = indexed.containsKey(pathsByTask.get(task));
+                    if (replace) {
+                        changed++;
+                    } else {
+                        added++;
+                    }
+                    addBatch(entry, replace);
+                    if (++pending >= BATCH_SIZE) {
+                        executeBatch();
+                        pending = 0;
+                    }
+                }
+                executeBatch();
+            } catch (SQLException | RuntimeException e) {
+                rollback();
+                throw e;
+            } finally {
+                connection.setAutoCommit(true);
+            }
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InternalServerException("Scan interrupted", e);
+        } catch (final SQLException e) {
+            throw new InternalServerException("Scan failed, " + e.toString(), e);
+        } finally {
+            readers.shutdownNow();
         }
+
+        final double seconds = (System.nanoTime() - started) / 1e9;
+        final JSONObject report = new JSONObject()
+                .put("files", netCDFFiles.size())
+                .put("added", added)
+                .put("changed", changed)
+                .put("removed", removed)
+                .put("unstable", unstable)
+                .put("failed", failures.length())
+                .put("seconds", seconds)
+                .put("filesPerSecond", seconds > 0 ? pathsByTask.size() / seconds : 0)
+                .put("failures", failures);
+        LOGGER.info(String.format("Scanned %d netCDF files in %.1f s (%.1f files/s): %d added,"
+                + " %d changed, %d removed, %d still being written, %d failed",
+                netCDFFiles.size(), seconds, report.getDouble("filesPerSecond"),
+                added, changed, removed, unstable, failures.length()));
+        return report;
     }
 
     /**
      * Lists all netCDF files (files ending in ".nc" in the directory and any subdirectories (recursively)
      *
      * @param directory Where the search starts
-     * @return ArrayList<String> of filepaths of all netCDF files found
+     * @return the size and modification time of all netCDF files found, by path
      */
-    private static ArrayList<String> listNetCDFFilesIn(String directory) throws IOException {
-        final ArrayList<String> result = new ArrayList<String>();
+    private static Map<String, FileState> listNetCDFFilesIn(String directory) throws IOException {
+        final Map<String, FileState> result = new LinkedHashMap<>();
 
         Path root = Paths.get(directory);
         Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
             @Override
             public FileVisitResult visitFile(Path file, BasicFileAttributes attrs)
                     throws IOException {
-                if (file.toString().endsWith(".nc")) {
-                    result.add(file.toString());
+                if (isNetCdfFile(file)) {
+                    result.put(file.toString(), new FileState(attrs));
                 }
                 return FileVisitResult.CONTINUE;
             }
@@ -139,32 +319,160 @@ public class NetCdfIndexer {
         return result;
     }
 
+    static boolean isNetCdfFile(final Path path) {
+        return path.toString().endsWith(".nc");
+    }
+
     /**
-     * Adds a netCDF file to the index database, unless it is already indexed
-     * The file is opened to discover it's coverage in time and space as well as some metadata
+     * @return the size and modification time of every indexed file, read in one query.
+     */
+    private static Map<String, FileState> indexedFiles() throws SQLException {
+        final Map<String, FileState> result = new HashMap<>();
+        try (final Statement statement = connection.createStatement();
+             final ResultSet rs = statement.executeQuery(
+                     "SELECT filepath, size, modified FROM dataset")) {
+            while (rs.next()) {
+                result.put(rs.getString(1), new FileState(rs.getLong(2), rs.getLong(3)));
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds a netCDF file to the index database, or re-indexes it if it changed since it was
+     * indexed. The file is opened to discover it's coverage in time and space as well as some
+     * metadata
      * @param filepath path of the file to be added
+     * @return true if the index changed.
      */
-    private static void addFile(String filepath) throws SQLException, InvalidRangeException {
-        Statement statement = connection.createStatement();
+    static synchronized boolean indexFile(final String filepath)
+            throws IOException, SQLException, InvalidRangeException {
+        final FileState state = new FileState(
+                Files.readAttributes(Paths.get(filepath), BasicFileAttributes.class));
+        final FileState indexed = indexedState(filepath);
+        if (state.equals(indexed)) {
+            return false;
+        }
 
-        //checking if file is already in database
-        String statementString = "SELECT * FROM dataset_XY_time WHERE filepath = \""  + filepath + "\";";
-        ResultSet rs = statement.executeQuery(statementString);
-        if(rs.next() == true){
-            rs.close();
-            statement.close();
-            return;
+        final Entry entry = readEntry(filepath, state);
+        connection.setAutoCommit(false);
+        try {
+            addBatch(entry, indexed != null);
+            executeBatch();
+        } catch (SQLException | RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
         }
+        return true;
+    }
 
-        rs.close();
-        statement.close();
+    /**
+     * Removes a file from the index.
+     * @return true if it was indexed.
+     */
+    static synchronized boolean removeFile(final String filepath) throws SQLException {
+        if (indexedState(filepath) == null) {
+            return false;
+        }
+        connection.setAutoCommit(false);
+        try {
+            removeBatch(filepath);
+            executeBatch();
+        } catch (SQLException | RuntimeException e) {
+            rollback();
+            throw e;
+        } finally {
+            connection.setAutoCommit(true);
+        }
+        return true;
+    }
 
-        //actually adding the file
+    /**
+     * @return the state of a file when it was indexed, null if it is not.
+     */
+    private static FileState indexedState(final String filepath) throws SQLException {
+        selectStateStatement.setString(1, filepath);
+        try (final ResultSet rs = selectStateStatement.executeQuery()) {
+            return rs.next() ? new FileState(rs.getLong(1), rs.getLong(2)) : null;
+        }
+    }
+
+    /**
+     * @param replace true if an older version of the file is indexed and should be replaced.
+     */
+    private static void addBatch(final Entry entry, final boolean replace) throws SQLException {
+        final CatalogEntry coverage = entry.coverage;
+        if (replace) {
+            deleteBatch(coverage.getFilepath());
+        }
+        insertDatasetStatement.setString(1, coverage.getFilepath());
+        insertDatasetStatement.setDouble(2, coverage.getMinLat());
+        insertDatasetStatement.setDouble(3, coverage.getMaxLat());
+        insertDatasetStatement.setDouble(4, coverage.getMinLon());
+        insertDatasetStatement.setDouble(5, coverage.getMaxLon());
+        insertDatasetStatement.setLong(6, coverage.getStartMillis() / 1000);
+        insertDatasetStatement.setLong(7, coverage.getEndMillis() / 1000);
+        insertDatasetStatement.setInt(8, coverage.getGridSize());
+        insertDatasetStatement.setLong(9, entry.state.size);
+        insertDatasetStatement.setLong(10, entry.state.modified);
+        insertDatasetStatement.addBatch();
+
+        batchEvents.add(new IndexEvent(
+                replace ? IndexEvent.Type.CHANGED : IndexEvent.Type.ADDED,
+                coverage.getFilepath(),
+                coverage));
+    }
+
+    private static void removeBatch(final String filepath) throws SQLException {
+        deleteBatch(filepath);
+        batchEvents.add(new IndexEvent(IndexEvent.Type.REMOVED, filepath, null));
+    }
+
+    private static void deleteBatch(final String filepath) throws SQLException {
+        deleteDatasetStatement.setString(1, filepath);
+        deleteDatasetStatement.addBatch();
+    }
+
+    /**
+     * Writes the batched changes, commits and publishes them. Deletes go first, since a changed
+     * file is deleted and inserted again in the same batch.
+     */
+    private static void executeBatch() throws SQLException {
+        deleteDatasetStatement.executeBatch();
+        insertDatasetStatement.executeBatch();
+        connection.commit();
+
+        for (final IndexEvent event : batchEvents) {
+            for (final IndexListener listener : listeners) {
+                try {
+                    listener.indexChanged(event);
+                } catch (final RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Index listener failed on " + event, e);
+                }
+            }
+        }
+        batchEvents.clear();
+    }
+
+    private static void rollback() throws SQLException {
+        batchEvents.clear();
+        deleteDatasetStatement.clearBatch();
+        insertDatasetStatement.clearBatch();
+        connection.rollback();
+    }
+
+    /**
+     * Opens a netCDF file and reads its coverage in time and space.
+     */
+    private static Entry readEntry(final String filepath, final FileState state)
+            throws IOException, InvalidRangeException {
         NetcdfFile file = null;
         try{
             file = NetcdfFile.open(filepath);
 
-            Variable variableRaw = file.findVariable("gridLats");
+            Variable variableRaw = findVariable(file, "gridLats");
 
             int yLength = variableRaw.getDimension(0).getLength();
             int xLength = variableRaw.getDimension(1).getLength();
@@ -173,47 +481,36 @@ public class NetCdfIndexer {
             int[] stride = new int[] {yLength-1, xLength-1};
             Section section = new Section(origin,size,stride);
 
+            // The grid is projected, so the bounding box is the box around its four corners.
             ucar.ma2.Array corners = variableRaw.read(section);
-            double upperLeftLat  = corners.getDouble(0);
-            double upperRightLat = corners.getDouble(1);
-            double lowerLeftLat  = corners.getDouble(2);
-            double lowerRightLat = corners.getDouble(3);
+            double minLat = Double.POSITIVE_INFINITY;
+            double maxLat = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < 4; i++) {
+                minLat = Math.min(minLat, corners.getDouble(i));
+                maxLat = Math.max(maxLat, corners.getDouble(i));
+            }
 
-            variableRaw = file.findTopVariable("gridLons");
+            variableRaw = findVariable(file, "gridLons");
             corners = variableRaw.read(section);
-            double upperLeftLon  = corners.getDouble(0);
-            double upperRightLon = corners.getDouble(1);
-            double lowerLeftLon  = corners.getDouble(2);
-            double lowerRightLon = corners.getDouble(3);
-
-            String coverageString = "GeomFromText('POLYGON((" +
-                    upperLeftLon  + " " + upperLeftLat  + ", " +
-                    upperRightLon + " " + upperRightLat + ", " +
-                    lowerRightLon + " " + lowerRightLat + ", " +
-                    lowerLeftLon  + " " + lowerLeftLat  + ", " +
-                    upperLeftLon  + " " + upperLeftLat  + "))', 33333)";
-
+            double minLon = Double.POSITIVE_INFINITY;
+            double maxLon = Double.NEGATIVE_INFINITY;
+            for (int i = 0; i < 4; i++) {
+                minLon = Math.min(minLon, corners.getDouble(i));
+                maxLon = Math.max(maxLon, corners.getDouble(i));
+            }
 
             DateTimeFormatter formatter = DateTimeFormat.forPattern("yyyy-MM-dd HH:mm:ss");
-            variableRaw = file.findVariable("time");
+            variableRaw = findVariable(file, "time");
             String startString = variableRaw.findAttributeIgnoreCase("units").getStringValue();
             DateTime startDateTime = formatter.parseDateTime(startString.substring(11));    //substring to remove 'days since '
             DateTime endDateTime = startDateTime.plusHours((int)variableRaw.getSize());
 
-            long startTime = startDateTime.getMillis()/1000;
-            long endTime = endDateTime.getMillis()/1000;
-            String timeString = "GeomFromText('LINESTRING(0 " + startTime + ", 0 " + endTime + ")', 33333)";
-
-            Attribute attribute = file.findVariable("grid_mapping").findAttributeIgnoreCase("horizontal_resolution");
+            Attribute attribute = findVariable(file, "grid_mapping").findAttributeIgnoreCase("horizontal_resolution");
             int gridSize = attribute.getNumericValue().intValue();
 
-            statementString = "INSERT INTO dataset_XY_time (filepath, coverage, time, gridsize) " +
-                    "VALUES(\"" + filepath + "\", " + coverageString + ", " + timeString + ", " + gridSize + ");";
-
-            statement.executeUpdate(statementString);
-
-        } catch (IOException e) {
-            throw new InternalServerException("Error while opening netCDF to be added to index, " + filepath);
+            return new Entry(new CatalogEntry(filepath, minLat, maxLat, minLon, maxLon,
+                    startDateTime.getMillis(), endDateTime.getMillis(), gridSize,
+                    state.size, state.modified), state);
         } finally {
             if (file != null) {
                 try {
@@ -225,4 +522,56 @@ public class NetCdfIndexer {
         }
     }
 
+    private static Variable findVariable(final NetcdfFile file, final String name)
+            throws IOException {
+        final Variable variable = file.findVariable(name);
+        if (variable == null) {
+            throw new IOException(file.getLocation() + " has no variable " + name);
+        }
+        return variable;
+    }
+
+    /**
+     * Coverage of one file together with the state it was read in.
+     */
+    private static final class Entry {
+        final CatalogEntry coverage;
+        final FileState state;
+
+        Entry(final CatalogEntry coverage, final FileState state) {
+            this.coverage = coverage;
+            this.state = state;
+        }
+    }
+
+    /**
+     * Size and modification time of a file, to tell whether it changed.
+     */
+    private static final class FileState {
+        final long size;
+        final long modified;
+
+        FileState(final long size, final long modified) {
+            this.size = size;
+            this.modified = modified;
+        }
+
+        FileState(final BasicFileAttributes attributes) {
+            this(attributes.size(), attributes.lastModifiedTime().toMillis());
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof FileState)) {
+                return false;
+            }
+            final FileState other = (FileState) o;
+            return size == other.size && modified == other.modified;
+        }
+
+        @Override
+        public int hashCode() {
+            return Long.hashCode(size) * 31 + Long.hashCode(modified);
+        }
+    }
 }
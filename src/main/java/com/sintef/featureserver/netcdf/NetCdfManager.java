@@ -2,15 +2,34 @@ package com.sintef.featureserver.netcdf;
 
 import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.InternalServerException;
-import com.sintef.featureserver.util.NetCdfDescriptor;
+import com.sintef.featureserver.util.SingleFlight;
+import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.Date;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.json.JSONObject;
 import ucar.ma2.Array;
 import ucar.ma2.Index;
 import ucar.ma2.InvalidRangeException;
+import ucar.ma2.Range;
+import ucar.ma2.Section;
 import ucar.nc2.Attribute;
 import ucar.nc2.dataset.CoordinateAxis1D;
 import ucar.nc2.dataset.CoordinateAxis1DTime;
@@ -19,24 +38,90 @@ import ucar.nc2.dt.GridDataset;
 import ucar.nc2.dt.GridDatatype;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.LatLonRect;
+import ucar.unidata.geoloc.ProjectionImpl;
 
 /**
  * Manages netCdfFiles. Selects the appropriate file to read data from based on the bounds the
- * user specified, downsamples the data to a sane density and returns the result.
+ * user specified, downsamples the data to a sane density and returns the result. When several
+ * files cover the bounds, e.g. nested grids, they are read in parallel and combined in a
+ * {@link Mosaic}.
+ *
+ * Datasets are borrowed from a {@link DatasetRegistry} rather than opened per call, so the file
+ * headers are only parsed when a new dataset is added to the pool. Zoomed out regions are read
+ * from the overview pyramids in the {@link OverviewStore} when they exist, and other regions are
+ * cropped from whole slices kept in the {@link SliceCache}.
  * @author Arve Nygård
  */
 public class NetCdfManager {
+    private static final Logger LOGGER = Logger.getLogger(NetCdfManager.class.getName());
+    // Mean length of a degree of latitude. Good enough for choosing strides and sources.
+    static final double METERS_PER_DEGREE_LATITUDE = 111_320.0;
+    // Most samples along a transect; longer paths are sampled coarser than the grid.
+    private static final int MAX_TRANSECT_SAMPLES = 4096;
+    // A transect section grows while its bounding box has at most this many cells per sample,
+    // or this many cells in total.
+    private static final int SECTION_CELLS_PER_SAMPLE = 4;
+    private static final int MIN_SECTION_CELLS = 64;
+    // The --netcdf-file is not watched by the indexer, so its identity is checked at most this
+    // often.
+    private static final long FILE_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final DatasetRegistry datasetRegistry;
+    private final FileCatalog fileCatalog;
+    private final OverviewStore overviewStore;
+    private final SliceCache sliceCache;
+    // Concurrent identical reads share one read: whole requests, by their bounds...
+    private final SingleFlight<String, FeatureGrid> areaReads = new SingleFlight<>();
+    // ... and the reads of one slice or grid-aligned subset, by index.
+    private final SingleFlight<String, SliceCache.Slice> sliceReads = new SingleFlight<>();
+    private final SingleFlight<String, FeatureGrid> subsetReads = new SingleFlight<>();
+    // Time and depth axes of the files, read on first use and dropped when a file changes.
+    private final Map<String, Axes> axes = new ConcurrentHashMap<>();
+    private volatile CatalogEntry netCdfFileEntry;
+    private volatile long netCdfFileCheckedAt;
+    private final ExecutorService componentReader = Executors.newCachedThreadPool(runnable -> {
+        final Thread thread = new Thread(runnable, "component-reader");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    public NetCdfManager(
+            final DatasetRegistry datasetRegistry,
+            final FileCatalog fileCatalog,
+            final OverviewStore overviewStore,
+            final SliceCache sliceCache) {
+        this.datasetRegistry = datasetRegistry;
+        this.fileCatalog = fileCatalog;
+        this.overviewStore = overviewStore;
+        this.sliceCache = sliceCache;
+    }
+
+    public DatasetRegistry getDatasetRegistry() { return datasetRegistry; }
+
+    public FileCatalog getFileCatalog() { return fileCatalog; }
+
+    public SliceCache getSliceCache() { return sliceCache; }
+
+    /**
+     * @return counters of the reads shared by concurrent requests.
+     */
+    public JSONObject getCoalescingStatistics() {
+        return new JSONObject()
+                .put("areaReads", areaReads.getStatistics())
+                .put("sliceReads", sliceReads.getStatistics())
+                .put("subsetReads", subsetReads.getStatistics());
+    }
 
     /**
      * Gets the values of a scalar variables at the given area.
      *
      * @param boundingBox Area we are interested in.
      * @param feature Which feature we are interested in.
-     * @return 2D array of values.
+     * @return grid of values, rows along y.
      * @throws IOException
      * @throws InvalidRangeException
      */
-    public double[][] getScalarArea(final AreaBounds boundingBox, final Feature feature)
+    public FeatureGrid getScalarArea(final AreaBounds boundingBox, final Feature feature)
             throws IOException, InvalidRangeException {
 
         if (feature.dimension() != 1) {
@@ -50,66 +135,12 @@ public class NetCdfManager {
             }
         }
 
-        // Find files
-        final List<NetCdfDescriptor> files = getCorrectFilePath(boundingBox); // Hardcoded to launch
-        // flag for now.
-
-        // Filter files by date (keep only the most current ones)
-        
-        // Count the resolution of result (Or get)
-        
-        // Filter files by resolution
-
-        double[][] result;
-        final int[] stride = calculateStride(boundingBox.getRect());
-
-        // There will be loop through files that should be read
-        final NetCdfDescriptor file = files.get(0);
-
-        // Open the dataset, find the variable and its coordinate system
-        final GridDataset gds = ucar.nc2.dt.grid.GridDataset.open(file.getFilename());
-        final GridDatatype grid = gds.findGridDatatype(feature.toString());
-        final GridCoordSystem gcs = grid.getCoordinateSystem();
-
-        // Crop the X and Y dimensions
-        final GridDatatype gridSubset = grid.makeSubset(
-                null, // time range. Null to keep everything
-                null, // Z range. Null to keep everything
-                boundingBox.getRect(), // Rectangle we are interested in
-                1, // Z stride
-                stride[1], // Y stride
-                stride[0]); // X stride
-
-        // Default values for depth and time: If the data volume does not have these axes (i.e.
-        // only a single depth layer or time slice, then we grab "everything along that axis")
-        int timeIndex = -1;
-        int depthIndex = -1;
-        if(gcs.hasTimeAxis()) {
-            final CoordinateAxis1DTime timeAxis = gcs.getTimeAxis1D();
-            timeIndex = timeAxis.findTimeIndexFromDate(boundingBox.getTime().toDate());
-        }
-
-        final CoordinateAxis1D depthAxis = gcs.getVerticalAxis();
-        if (depthAxis != null) {
-            depthIndex = depthAxis.findCoordElementBounded(boundingBox.getDepth());
-        }
-
-        // Gridsubset is now the volume we are interested in.
-        // -1 to get everything along X and Y dimension.
-        final Array areaData = gridSubset.readDataSlice(timeIndex, depthIndex, -1, -1);
-
-        // Create array to hold the data
-        final int[] shape = areaData.getShape();
-        result = new double[shape[0]][shape[1]];
-
-        final Index index = areaData.getIndex();
-        for (int i=0; i<shape[0]; i++) {
-            for (int j=0; j<shape[1]; j++) {
-                result[i][j] = areaData.getDouble(index.set(i,j));
-            }
+        // Files covering the area, at the resolution the output needs first
+        final List<CatalogEntry> files = getCorrectFilePath(boundingBox);
+        if (files.size() == 1) {
+            return readComponent(files.get(0).getFilepath(), feature.x(), boundingBox);
         }
-        gds.close();
-        return result;
+        return mosaic(boundingBox, files, readSources(files, feature, boundingBox)).scalar();
     }
 
     /**
@@ -117,11 +148,11 @@ public class NetCdfManager {
      *
      * @param boundingBox Area we are interested in.
      * @param feature Which feature we are interested in.
-     * @return 2D array of 2D values. (Every point in the array has form [x axis, y axis])
+     * @return the x axis and y axis components over the same grid.
      * @throws IOException
      * @throws InvalidRangeException
      */
-    public double[][][] getVectorArea(final AreaBounds boundingBox, final Feature feature)
+    public VectorGrid getVectorArea(final AreaBounds boundingBox, final Feature feature)
             throws IOException, InvalidRangeException {
 
         if (feature.dimension() != 2) {
@@ -135,74 +166,396 @@ public class NetCdfManager {
             }
         }
 
-        // Find files
-        final List<NetCdfDescriptor> files = getCorrectFilePath(boundingBox); // Hardcoded to launch
-        // flag for now.
+        // Files covering the area, at the resolution the output needs first
+        final List<CatalogEntry> files = getCorrectFilePath(boundingBox);
+        if (files.size() > 1) {
+            return mosaic(boundingBox, files, readSources(files, feature, boundingBox)).vector();
+        }
+        final String filename = files.get(0).getFilepath();
 
-        // Pick files (if there are multiple files with same data)
-        // and areas that will be read in them
+        // The components are read concurrently, each from its own pooled dataset. The y
+        // component goes to a reader thread while this thread reads x.
+        final Future<FeatureGrid> yFuture = componentReader.submit(
+                () -> readComponent(filename, feature.y(), boundingBox));
+        final FeatureGrid xData;
+        try {
+            xData = readComponent(filename, feature.x(), boundingBox);
+        } catch (final IOException | InvalidRangeException | RuntimeException e) {
+            yFuture.cancel(false);
+            throw e;
+        }
+        return new VectorGrid(xData, awaitComponent(yFuture));
+    }
 
-        double[][][] result;
-        final int[] stride = calculateStride(boundingBox.getRect());
+    /**
+     * Reads the area from every file in parallel: this thread reads the first file while the
+     * others go to the reader threads. A file that fails is logged and left out, unless they all
+     * fail.
+     *
+     * @return the areas read, in the order of the files.
+     */
+    private List<Mosaic.Source> readSources(
+            final List<CatalogEntry> files,
+            final Feature feature,
+            final AreaBounds boundingBox) throws IOException, InvalidRangeException {
+        final List<Future<Mosaic.Source>> futures = new ArrayList<>(files.size());
+        for (final CatalogEntry file : files.subList(1, files.size())) {
+            futures.add(componentReader.submit(
+                    () -> readSource(file.getFilepath(), feature, boundingBox)));
+        }
+        final List<Mosaic.Source> sources = new ArrayList<>(files.size());
+        Exception firstFailure = null;
+        try {
+            sources.add(readSource(files.get(0).getFilepath(), feature, boundingBox));
+        } catch (final IOException | InvalidRangeException e) {
+            LOGGER.log(Level.WARNING, "Leaving " + files.get(0).getFilepath()
+                    + " out of the mosaic", e);
+            firstFailure = e;
+        }
+        for (int i = 0; i < futures.size(); i++) {
+            try {
+                sources.add(awaitSource(futures.get(i)));
+            } catch (final IOException | InvalidRangeException e) {
+                LOGGER.log(Level.WARNING, "Leaving " + files.get(i + 1).getFilepath()
+                        + " out of the mosaic", e);
+                firstFailure = firstFailure == null ? e : firstFailure;
+            }
+        }
+        if (sources.isEmpty()) {
+            if (firstFailure instanceof InvalidRangeException) {
+                throw (InvalidRangeException) firstFailure;
+            }
+            throw (IOException) firstFailure;
+        }
+        return sources;
+    }
 
-        // There will be loop through all files that should be read
-        final NetCdfDescriptor file = files.get(0);
+    /**
+     * Reads the area from one file, together with the projection of its grid.
+     */
+    private Mosaic.Source readSource(
+            final String filename,
+            final Feature feature,
+            final AreaBounds boundingBox) throws IOException, InvalidRangeException {
+        // Released before the reads, which borrow datasets of their own.
+        final ProjectionImpl projection;
+        try (final DatasetHandle handle = datasetRegistry.acquire(filename)) {
+            final GridDatatype grid = handle.getDataset().findGridDatatype(feature.x());
+            if (grid == null) {
+                throw new IOException("Variable " + feature.x() + " is not in " + filename);
+            }
+            projection = grid.getCoordinateSystem().getProjection();
+        }
+        final FeatureGrid x = readComponent(filename, feature.x(), boundingBox);
+        if (x.getGeoTransform() == null) {
+            throw new IOException("The grid of " + filename + " is not regular");
+        }
+        final FeatureGrid y = feature.dimension() == 2
+                ? readComponent(filename, feature.y(), boundingBox)
+                : null;
+        return new Mosaic.Source(x, y, projection);
+    }
 
-        // Open the dataset, find the variable and its coordinate system
-        final GridDataset gds = ucar.nc2.dt.grid.GridDataset.open(file.getFilename());
-        final GridDatatype xGrid = gds.findGridDatatype(feature.x());
-        final GridDatatype yGrid = gds.findGridDatatype(feature.y());
-        final GridCoordSystem gcs = xGrid.getCoordinateSystem();
+    /**
+     * @return a mosaic at the resolution the primary (first) file is read at.
+     */
+    private static Mosaic mosaic(
+            final AreaBounds boundingBox,
+            final List<CatalogEntry> files,
+            final List<Mosaic.Source> sources) {
+        final double primary = Math.max(1, files.get(0).getGridSize());
+        final int[] stride
+                = calculateStride(boundingBox.getRect(), primary, boundingBox.getOutputSize());
+        return new Mosaic(boundingBox.getRect(), stride[0] * primary, primary, sources);
+    }
 
-        // Crop the X and Y dimensions
-        final GridDatatype xGridSubset = xGrid.makeSubset(
-                null, // time range. Null to keep everything
-                null, // Z range. Null to keep everything
-                boundingBox.getRect(), // Rectangle we are interested in
-                1, // Z stride
-                stride[1], // Y stride
-                stride[0]); // X stride
-        final GridDatatype yGridSubset = yGrid.makeSubset(
-                null, // time range. Null to keep everything
-                null, // Z range. Null to keep everything
-                boundingBox.getRect(), // Rectangle we are interested in
-                1, // Z stride
-                stride[1], // Y stride
-                stride[0]); // X stride
-
-        // Default values for depth and time: If the data volume does not have these axes (i.e.
-        // only a single depth layer or time slice, then we grab "everything along that axis")
-        int timeIndex = -1;
-        int depthIndex = -1;
-        if(gcs.hasTimeAxis()) {
+    private static Mosaic.Source awaitSource(final Future<Mosaic.Source> future)
+            throws IOException, InvalidRangeException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading mosaic source.");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidRangeException) {
+                throw (InvalidRangeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not read mosaic source.", cause);
+        }
+    }
+
+    /**
+     * Reads the area of one variable, borrowing a dataset for just this read. Concurrent reads
+     * of the same area share one read.
+     */
+    private FeatureGrid readComponent(
+            final String filename,
+            final String variable,
+            final AreaBounds boundingBox) throws IOException, InvalidRangeException {
+        final LatLonRect rect = boundingBox.getRect();
+        final String key = filename + "|" + variable
+                + "|" + rect.getLatMin() + "," + rect.getLonMin()
+                + "," + rect.getLatMax() + "," + rect.getLonMax()
+                + "|" + (boundingBox.getTime() == null ? "" : boundingBox.getTime().getMillis())
+                + "|" + (boundingBox.hasDepth() ? boundingBox.getDepth() : "")
+                + "|" + boundingBox.getOutputSize();
+        return areaReads.execute(key, () -> readComponentNow(filename, variable, boundingBox));
+    }
+
+    private FeatureGrid readComponentNow(
+            final String filename,
+            final String variable,
+            final AreaBounds boundingBox) throws IOException, InvalidRangeException {
+        try (final DatasetHandle handle = datasetRegistry.acquire(filename)) {
+            final GridDataset gds = handle.getDataset();
+            final GridDatatype grid = gds.findGridDatatype(variable);
+            if (grid == null) {
+                throw new InternalServerException(
+                        "Variable " + variable + " is not in the data file.");
+            }
+            final int[] stride = calculateStride(
+                    boundingBox.getRect(), readResolution(gds), boundingBox.getOutputSize());
+            final GridCoordSystem gcs = grid.getCoordinateSystem();
+
+            final int timeIndex = findTimeIndex(gcs, boundingBox);
+            final int depthIndex = findDepthIndex(gcs, boundingBox);
+
+            return readArea(filename, grid, variable, boundingBox.getRect(), stride[0],
+                    timeIndex, depthIndex);
+        }
+    }
+
+    /**
+     * Waits for a component read on the reader threads, rethrowing what it threw.
+     */
+    private static FeatureGrid awaitComponent(final Future<FeatureGrid> future)
+            throws IOException, InvalidRangeException {
+        try {
+            return future.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading vector component.");
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidRangeException) {
+                throw (InvalidRangeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Could not read vector component.", cause);
+        }
+    }
+
+    /**
+     * Default values for time: If the data volume does not have this axis (i.e. only a single
+     * time slice), then we grab "everything along that axis".
+     * @return index along the time axis, or -1 for everything.
+     */
+    private static int findTimeIndex(final GridCoordSystem gcs, final AreaBounds bounds) {
+        if (gcs.hasTimeAxis()) {
             final CoordinateAxis1DTime timeAxis = gcs.getTimeAxis1D();
-            timeIndex = timeAxis.findTimeIndexFromDate(boundingBox.getTime().toDate());
+            return timeAxis.findTimeIndexFromDate(bounds.getTime().toDate());
         }
+        return -1;
+    }
 
+    /**
+     * @return index along the depth axis, or -1 for everything if there is no such axis.
+     */
+    private static int findDepthIndex(final GridCoordSystem gcs, final AreaBounds bounds) {
         final CoordinateAxis1D depthAxis = gcs.getVerticalAxis();
         if (depthAxis != null) {
-            depthIndex = depthAxis.findCoordElementBounded(boundingBox.getDepth());
+            return depthAxis.findCoordElementBounded(bounds.getDepth());
+        }
+        return -1;
+    }
+
+    /**
+     * Reads a horizontal slice of a variable, cropped to a region and strided.
+     *
+     * If an overview pyramid exists for the slice, the coarsest level that has at least the
+     * resolution asked for is used instead of the netCDF file. Otherwise the region is cropped
+     * from the whole slice, which is kept in the {@link SliceCache}. The result is a view of the
+     * overview, cached slice or netCDF array; values are not copied.
+     */
+    private FeatureGrid readArea(
+            final String filename,
+            final GridDatatype grid,
+            final String variable,
+            final LatLonRect rect,
+            final int stride,
+            final int timeIndex,
+            final int depthIndex) throws IOException, InvalidRangeException {
+        final GridCoordSystem gcs = grid.getCoordinateSystem();
+
+        final FeatureGrid fromOverview = readAreaFromOverview(
+                filename, gcs, variable, rect, stride, timeIndex, depthIndex);
+        if (fromOverview != null) {
+            return fromOverview;
+        }
+
+        final List<Range> ranges = gcs.getRangesFromLatLonRect(rect);
+        final Range yRange = ranges.get(0);
+        final Range xRange = ranges.get(1);
+        final double[] geoTransform = geoTransform(gcs, yRange.first(), xRange.first(), stride);
+
+        if (sliceCache.isEnabled()) {
+            final SliceCache.Slice slice
+                    = loadSlice(filename, grid, variable, timeIndex, depthIndex);
+            return FeatureGrid.wrap(slice.data, 0, slice.width, slice.height, slice.width, 1)
+                    .window(yRange.first(), yRange.last(), xRange.first(), xRange.last(), stride)
+                    .withGeoTransform(geoTransform);
         }
 
+        final String key = filename + "|" + variable + "|" + timeIndex + "|" + depthIndex
+                + "|" + yRange + "|" + xRange + "|" + stride;
+        return subsetReads.execute(key, () ->
+                readSubset(grid, rect, stride, timeIndex, depthIndex).withGeoTransform(geoTransform));
+    }
+
+    /**
+     * Reads a region of a slice straight from the netCDF file.
+     */
+    private static FeatureGrid readSubset(
+            final GridDatatype grid,
+            final LatLonRect rect,
+            final int stride,
+            final int timeIndex,
+            final int depthIndex) throws IOException, InvalidRangeException {
+        // Crop the X and Y dimensions
+        final GridDatatype gridSubset = grid.makeSubset(
+                null, // time range. Null to keep everything
+                null, // Z range. Null to keep everything
+                rect, // Rectangle we are interested in
+                1, // Z stride
+                stride, // Y stride
+                stride); // X stride
+
         // Gridsubset is now the volume we are interested in.
         // -1 to get everything along X and Y dimension.
-        final Array xData = xGridSubset.readDataSlice(timeIndex, depthIndex, -1, -1);
-        final Array yData = yGridSubset.readDataSlice(timeIndex, depthIndex, -1, -1);
-
-        // Create array to hold the data
-        final int[] shape = xData.getShape();
-        result = new double[shape[0]][shape[1]][2];
-
-        final Index xIndex = xData.getIndex();
-        final Index yIndex = yData.getIndex();
-        for (int i=0; i<shape[0]; i++) {
-            for (int j=0; j<shape[1]; j++) {
-                result[i][j][0] = xData.getDouble(xIndex.set(i,j));
-                result[i][j][1] = yData.getDouble(yIndex.set(i,j));
-            }
+        final Array areaData = gridSubset.readDataSlice(timeIndex, depthIndex, -1, -1);
+        return FeatureGrid.fromArray(areaData, fillValue(grid)).withDecimation(stride);
+    }
+
+    /**
+     * @return the whole horizontal slice of a variable, from the cache if possible.
+     */
+    private SliceCache.Slice loadSlice(
+            final String filename,
+            final GridDatatype grid,
+            final String variable,
+            final int timeIndex,
+            final int depthIndex) throws IOException, InvalidRangeException {
+        final SliceCache.Slice cached = sliceCache.get(filename, variable, timeIndex, depthIndex);
+        if (cached != null) {
+            return cached;
         }
-        gds.close();
-        return result;
+        return sliceReads.execute(filename + "|" + variable + "|" + timeIndex + "|" + depthIndex,
+                () -> readSlice(filename, grid, variable, timeIndex, depthIndex));
+    }
+
+    private SliceCache.Slice readSlice(
+            final String filename,
+            final GridDatatype grid,
+            final String variable,
+            final int timeIndex,
+            final int depthIndex) throws IOException {
+        final Array sliceData = grid.readDataSlice(timeIndex, depthIndex, -1, -1);
+        final int[] shape = sliceData.getShape();
+        final float[] values
+                = grid.setMissingToNaN((float[]) sliceData.get1DJavaArray(float.class));
+        return sliceCache.put(
+                filename, variable, timeIndex, depthIndex, values, shape[1], shape[0]);
+    }
+
+    /**
+     * @return the region read from the coarsest overview level whose cells are no larger than
+     * `stride` source cells, or null if there is no suitable overview.
+     */
+    private FeatureGrid readAreaFromOverview(
+            final String filename,
+            final GridCoordSystem gcs,
+            final String variable,
+            final LatLonRect rect,
+            final int stride,
+            final int timeIndex,
+            final int depthIndex) throws InvalidRangeException {
+        // floor(log2(stride))
+        final int wantedLevel = 31 - Integer.numberOfLeadingZeros(stride);
+        if (wantedLevel < 1) {
+            return null;
+        }
+        final OverviewStore.Overview overview = overviewStore.find(filename, variable, timeIndex);
+        if (overview == null || overview.levelCount() < 1) {
+            return null;
+        }
+        final int level = Math.min(wantedLevel, overview.levelCount());
+        final int factor = 1 << level;
+        final int remainingStride = Math.max(1, stride / factor);
+
+        final List<Range> ranges = gcs.getRangesFromLatLonRect(rect);
+        final Range yRange = ranges.get(0);
+        final Range xRange = ranges.get(1);
+        final int yStart = yRange.first() / factor;
+        final int xStart = xRange.first() / factor;
+        final int yEnd = Math.min(yRange.last() / factor, overview.height(level) - 1);
+        final int xEnd = Math.min(xRange.last() / factor, overview.width(level) - 1);
+        // An overview cell is centered on the block of source cells it averages.
+        final double center = (factor - 1) / 2.0;
+        return overview.level(level, depthIndex)
+                .window(yStart, yEnd, xStart, xEnd, remainingStride)
+                .withDecimation(factor * remainingStride)
+                .withGeoTransform(geoTransform(gcs, yStart * factor + center,
+                        xStart * factor + center, factor * remainingStride));
+    }
+
+    /**
+     * @param firstRow Source row (fractional for averaged cells) of the first grid row.
+     * @param firstColumn Source column of the first grid column.
+     * @param cellsPerValue Number of source cells between neighbouring grid cells.
+     * @return the geo-transform (see {@link FeatureGrid#getGeoTransform()}), or null if the
+     * horizontal axes are not regular.
+     */
+    private static double[] geoTransform(
+            final GridCoordSystem gcs,
+            final double firstRow,
+            final double firstColumn,
+            final double cellsPerValue) {
+        if (!(gcs.getXHorizAxis() instanceof CoordinateAxis1D)
+                || !(gcs.getYHorizAxis() instanceof CoordinateAxis1D)) {
+            return null;
+        }
+        final CoordinateAxis1D xAxis = (CoordinateAxis1D) gcs.getXHorizAxis();
+        final CoordinateAxis1D yAxis = (CoordinateAxis1D) gcs.getYHorizAxis();
+        if (!xAxis.isRegular() || !yAxis.isRegular()) {
+            return null;
+        }
+        return new double[] {
+                xAxis.getStart() + firstColumn * xAxis.getIncrement(),
+                cellsPerValue * xAxis.getIncrement(),
+                yAxis.getStart() + firstRow * yAxis.getIncrement(),
+                cellsPerValue * yAxis.getIncrement()};
+    }
+
+    /**
+     * @return the `_FillValue` (or `missing_value`) of a variable, NaN if it has none.
+     */
+    private static float fillValue(final GridDatatype grid) {
+        Attribute attr = grid.findAttributeIgnoreCase("_FillValue");
+        if (attr == null) {
+            attr = grid.findAttributeIgnoreCase("missing_value");
+        }
+        if (attr == null || attr.getNumericValue() == null) {
+            return Float.NaN;
+        }
+        return attr.getNumericValue().floatValue();
     }
 
     /**
@@ -216,101 +569,711 @@ public class NetCdfManager {
             final LatLonPoint location,
             final DateTime dateTime,
             final Feature feature) throws IOException, InvalidRangeException {
-        final List<NetCdfDescriptor> filesContainingLocation = getCorrectFilePath(location);
+        // Files are listed finest grid first, newest first among grids of the same size.
+        final String filename = getCorrectFilePath(location, dateTime).get(0).getFilepath();
+
+        // Borrow the dataset, find the variable and its coordinate system
+        try (final DatasetHandle handle = datasetRegistry.acquire(filename)) {
+            final GridDataset gds = handle.getDataset();
+
+            final GridDatatype grid = gds.findGridDatatype(feature.toString());
+            if (grid == null) {
+                throw new IOException("No " + feature + " in " + filename);
+            }
+            final GridCoordSystem gcs = grid.getCoordinateSystem();
+
+            int timeIndex = -1;
+            if(gcs.hasTimeAxis()) {
+                final CoordinateAxis1DTime timeAxis = gcs.getTimeAxis1D();
+                timeIndex = timeAxis.findTimeIndexFromDate(dateTime.toDate());
+            }
+
+            final int[] xy = gcs.findXYindexFromLatLon(location.getLatitude(),
+                    location.getLongitude(), null);
+
+            if(xy[0] == -1 || xy[1] == -1){
+                throw new InvalidRangeException("No data for the given location");
+            }
+            final Array depthProfile = grid.readDataSlice(
+                    timeIndex,
+                    -1, // All Z indices
+                    xy[0], // X coordinate
+                    xy[1] // Y coordinate
+            );
+            return (double[])depthProfile.get1DJavaArray(double.class);
+        }
+    }
 
-        // Select the newest one.
-        final NetCdfDescriptor file
-                = filesContainingLocation.stream().max(NetCdfDescriptor.getDateComparator()).get();
+    /**
+     * Reads the values of a scalar feature at a location over a time range.
+     *
+     * The grid cell is looked up once per file, and all of its time steps in the range are read
+     * with a single {@link ucar.nc2.Variable#read(Section)}. The range may span several files.
+     * Where files overlap in time, the finest grid is used, and the newest file among grids of
+     * the same size.
+     *
+     * @param location The point where the series is sampled.
+     * @param depth Depth in meters, or null for the first layer.
+     * @param from First time of the range, inclusive.
+     * @param to Last time of the range, inclusive.
+     * @param feature A scalar feature.
+     * @return the values at the time steps in the range, empty if no file has any.
+     * @throws InvalidRangeException if no file has data for the location.
+     */
+    public TimeSeries readTimeSeries(
+            final LatLonPoint location,
+            final Float depth,
+            final DateTime from,
+            final DateTime to,
+            final Feature feature) throws IOException, InvalidRangeException {
+        if (feature.dimension() != 1) {
+            throw new IllegalArgumentException(
+                    "Time series are only available for scalar features, not " + feature);
+        }
+        final TreeMap<Long, Float> series = new TreeMap<>();
+        boolean located = false;
+        for (final CatalogEntry entry : getCorrectFilePath(location, from, to)) {
+            final String filename = entry.getFilepath();
+            try (final DatasetHandle handle = datasetRegistry.acquire(filename)) {
+                final GridDatatype grid = handle.getDataset().findGridDatatype(feature.x());
+                if (grid == null) {
+                    continue;
+                }
+                final GridCoordSystem gcs = grid.getCoordinateSystem();
+                final int[] xy = gcs.findXYindexFromLatLon(
+                        location.getLatitude(), location.getLongitude(), null);
+                if (xy[0] == -1 || xy[1] == -1 || !gcs.hasTimeAxis()) {
+                    continue;
+                }
+                located = true;
+                readTimeSeries(grid, xy, depth, from, to, series);
+            }
+        }
+        if (!located) {
+            throw new InvalidRangeException("No data for the given location");
+        }
 
-        // Open the dataset, find the variable and its coordinate system
-        final GridDataset gds = ucar.nc2.dt.grid.GridDataset.open(file.getFilename());
+        final long[] times = new long[series.size()];
+        final float[] values = new float[series.size()];
+        int i = 0;
+        for (final Map.Entry<Long, Float> entry : series.entrySet()) {
+            times[i] = entry.getKey();
+            values[i++] = entry.getValue();
+        }
+        return new TimeSeries(times, values);
+    }
 
-        final GridDatatype grid = gds.findGridDatatype(feature.toString());
+    /**
+     * Adds the values of one file to a series, at the time steps in the range it has no value
+     * for yet, so the files before it win and this one fills in their gaps.
+     *
+     * @param xy Indices of the cell along the x and y axes.
+     * @param series Values by time, filled from files of higher priority.
+     */
+    private static void readTimeSeries(
+            final GridDatatype grid,
+            final int[] xy,
+            final Float depth,
+            final DateTime from,
+            final DateTime to,
+            final TreeMap<Long, Float> series) throws IOException, InvalidRangeException {
         final GridCoordSystem gcs = grid.getCoordinateSystem();
+        final Date[] dates = gcs.getTimeAxis1D().getTimeDates();
 
-        int timeIndex = -1;
-        if(gcs.hasTimeAxis()) {
-            final CoordinateAxis1DTime timeAxis = gcs.getTimeAxis1D();
-            timeIndex = timeAxis.findTimeIndexFromDate(dateTime.toDate());
+        // Only read the span of time steps that are in the range and still missing.
+        int first = -1;
+        int last = -1;
+        for (int t = 0; t < dates.length; t++) {
+            final long millis = dates[t].getTime();
+            if (millis >= from.getMillis() && millis <= to.getMillis()
+                    && isMissing(series, millis)) {
+                if (first == -1) {
+                    first = t;
+                }
+                last = t;
+            }
+        }
+        if (first == -1) {
+            return;
         }
 
-        final int[] xy = gcs.findXYindexFromLatLon(location.getLatitude(), location.getLongitude(),
-                null);
+        final Range zRange;
+        if (grid.getZDimensionIndex() >= 0) {
+            final int depthIndex = depth == null
+                    ? 0
+                    : gcs.getVerticalAxis().findCoordElementBounded(depth);
+            zRange = new Range(depthIndex, depthIndex);
+        } else {
+            zRange = null;
+        }
+        final Array data = grid.getVariable().read(section(grid,
+                new Range(first, last), zRange, new Range(xy[1], xy[1]), new Range(xy[0], xy[0])));
 
-        if(xy[0] == -1 || xy[1] == -1){
-            throw new InvalidRangeException("No data for the given location");
+        for (int t = first; t <= last; t++) {
+            final long millis = dates[t].getTime();
+            if (millis >= from.getMillis() && millis <= to.getMillis()
+                    && isMissing(series, millis)) {
+                final float value = data.getFloat(t - first);
+                series.put(millis, grid.isMissingData(value) ? Float.NaN : value);
+            }
         }
-        final Array depthProfile = grid.readDataSlice(
-                timeIndex,
-                -1, // All Z indices
-                xy[0], // X coordinate
-                xy[1] // Y coordinate
-        );
-        return (double[])depthProfile.get1DJavaArray(double.class);
+    }
+
+    /**
+     * Reads a vertical section of a scalar feature along a path, e.g. along the axis of a fjord.
+     *
+     * The path is sampled at the resolution of the grid, and the grid cell of every sample is
+     * looked up. Runs of consecutive samples are then grouped into sections whose bounding box of
+     * cells stays small compared to the number of samples in them, and each section is read
+     * once across all depth layers. A path along a grid axis is one read, and a diagonal one is a
+     * few small reads instead of one read of its whole bounding box.
+     *
+     * @param path Points of a polyline, at least two.
+     * @param time Time of the section.
+     * @param feature A scalar feature.
+     * @return the section, NaN where there is no data (e.g. on land or outside of the grid).
+     */
+    public Transect readTransect(
+            final List<LatLonPoint> path,
+            final DateTime time,
+            final Feature feature) throws IOException, InvalidRangeException {
+        if (feature.dimension() != 1) {
+            throw new IllegalArgumentException(
+                    "Transects are only available for scalar features, not " + feature);
+        }
+        if (path.size() < 2) {
+            throw new IllegalArgumentException("A transect needs at least two points.");
+        }
+        final String filename = getCorrectFilePath(path, time).getFilepath();
+        try (final DatasetHandle handle = datasetRegistry.acquire(filename)) {
+            final GridDataset gds = handle.getDataset();
+            final GridDatatype grid = gds.findGridDatatype(feature.x());
+            if (grid == null) {
+                throw new IOException("No " + feature.x() + " in " + filename);
+            }
+            final GridCoordSystem gcs = grid.getCoordinateSystem();
+
+            final double[] lats = new double[path.size()];
+            final double[] lons = new double[path.size()];
+            final double[] distances = new double[path.size()];
+            for (int i = 0; i < path.size(); i++) {
+                lats[i] = path.get(i).getLatitude();
+                lons[i] = path.get(i).getLongitude();
+                if (i > 0) {
+                    distances[i] = distances[i - 1]
+                            + distance(lats[i - 1], lons[i - 1], lats[i], lons[i]);
+                }
+            }
+            final double length = distances[path.size() - 1];
+            if (!(length > 0.0)) {
+                throw new IllegalArgumentException("The transect has no length.");
+            }
+            final int samples = (int) Math.min(MAX_TRANSECT_SAMPLES,
+                    Math.ceil(length / readResolution(gds)) + 1);
+            final double spacing = length / (samples - 1);
+
+            // Grid cell of every sample, -1 outside of the grid.
+            final int[] xs = new int[samples];
+            final int[] ys = new int[samples];
+            int segment = 0;
+            for (int i = 0; i < samples; i++) {
+                final double distance = Math.min(length, i * spacing);
+                while (segment < path.size() - 2 && distances[segment + 1] < distance) {
+                    segment++;
+                }
+                final double segmentLength = distances[segment + 1] - distances[segment];
+                final double fraction = segmentLength > 0
+                        ? (distance - distances[segment]) / segmentLength
+                        : 0;
+                final int[] xy = gcs.findXYindexFromLatLon(
+                        lats[segment] + fraction * (lats[segment + 1] - lats[segment]),
+                        lons[segment] + fraction * (lons[segment + 1] - lons[segment]),
+                        null);
+                xs[i] = xy[0];
+                ys[i] = xy[1];
+            }
+
+            final CoordinateAxis1D depthAxis = gcs.getVerticalAxis();
+            final int layers = depthAxis == null ? 1 : (int) depthAxis.getSize();
+            final double[] depths = new double[layers];
+            for (int layer = 0; layer < layers; layer++) {
+                depths[layers - 1 - layer] = depthAxis == null ? 0 : depthAxis.getCoordValue(layer);
+            }
+            final int timeIndex = gcs.hasTimeAxis()
+                    ? gcs.getTimeAxis1D().findTimeIndexFromDate(time.toDate())
+                    : 0;
+
+            final float[] values = new float[layers * samples];
+            Arrays.fill(values, Float.NaN);
+            int start = 0;
+            while (start < samples) {
+                if (xs[start] < 0 || ys[start] < 0) {
+                    start++;
+                    continue;
+                }
+                // Grow the section while its bounding box stays small.
+                final int[] box = {xs[start], xs[start], ys[start], ys[start]};
+                int end = start + 1;
+                while (end < samples && xs[end] >= 0 && ys[end] >= 0) {
+                    final int minX = Math.min(box[0], xs[end]);
+                    final int maxX = Math.max(box[1], xs[end]);
+                    final int minY = Math.min(box[2], ys[end]);
+                    final int maxY = Math.max(box[3], ys[end]);
+                    final long cells = (long) (maxX - minX + 1) * (maxY - minY + 1);
+                    if (cells > Math.max(MIN_SECTION_CELLS,
+                            SECTION_CELLS_PER_SAMPLE * (end - start + 1))) {
+                        break;
+                    }
+                    box[0] = minX;
+                    box[1] = maxX;
+                    box[2] = minY;
+                    box[3] = maxY;
+                    end++;
+                }
+                readTransectSection(grid, timeIndex, layers, box, xs, ys, start, end, values);
+                start = end;
+            }
+
+            return new Transect(FeatureGrid.wrap(values, samples, layers), spacing, depths);
+        }
+    }
+
+    /**
+     * Reads the cells in a bounding box across all depth layers, and copies the values of
+     * samples [start, end) into the transect.
+     *
+     * @param box Bounding box of the cells as {minX, maxX, minY, maxY}.
+     * @param values Transect values, a row per layer with the deepest first.
+     */
+    private static void readTransectSection(
+            final GridDatatype grid,
+            final int timeIndex,
+            final int layers,
+            final int[] box,
+            final int[] xs,
+            final int[] ys,
+            final int start,
+            final int end,
+            final float[] values) throws IOException, InvalidRangeException {
+        final Array data = grid.getVariable().read(section(grid,
+                new Range(timeIndex, timeIndex),
+                new Range(0, layers - 1),
+                new Range(box[2], box[3]),
+                new Range(box[0], box[1])));
+        final Index index = data.getIndex();
+        final int samples = xs.length;
+        for (int i = start; i < end; i++) {
+            index.setDim(grid.getXDimensionIndex(), xs[i] - box[0]);
+            index.setDim(grid.getYDimensionIndex(), ys[i] - box[2]);
+            for (int layer = 0; layer < layers; layer++) {
+                if (grid.getZDimensionIndex() >= 0) {
+                    index.setDim(grid.getZDimensionIndex(), layer);
+                }
+                final float value = data.getFloat(index);
+                values[(layers - 1 - layer) * samples + i]
+                        = grid.isMissingData(value) ? Float.NaN : value;
+            }
+        }
+    }
+
+    /**
+     * @return the distance in meters between two nearby points, on a locally flat earth.
+     */
+    private static double distance(
+            final double lat1,
+            final double lon1,
+            final double lat2,
+            final double lon2) {
+        final double north = (lat2 - lat1) * METERS_PER_DEGREE_LATITUDE;
+        final double east = (lon2 - lon1) * METERS_PER_DEGREE_LATITUDE
+                * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        return Math.sqrt(north * north + east * east);
+    }
+
+    /**
+     * @param time Range along the time axis. Ignored if the grid has none, and so is z.
+     * @return the section of the variable of a grid with the given ranges, and the first index
+     * along any other axis (e.g. ensemble members).
+     */
+    private static Section section(
+            final GridDatatype grid,
+            final Range time,
+            final Range z,
+            final Range y,
+            final Range x) throws InvalidRangeException {
+        final List<Range> ranges = new ArrayList<>(grid.getRank());
+        for (int i = 0; i < grid.getRank(); i++) {
+            ranges.add(new Range(0, 0));
+        }
+        if (grid.getTimeDimensionIndex() >= 0) {
+            ranges.set(grid.getTimeDimensionIndex(), time);
+        }
+        if (grid.getZDimensionIndex() >= 0) {
+            ranges.set(grid.getZDimensionIndex(), z);
+        }
+        ranges.set(grid.getYDimensionIndex(), y);
+        ranges.set(grid.getXDimensionIndex(), x);
+        return new Section(ranges);
+    }
+
+    private static boolean isMissing(final Map<Long, Float> series, final long millis) {
+        final Float value = series.get(millis);
+        return value == null || value.isNaN();
     }
 
     /**
      * Calculates the stride (i.e. N in `get every N'th data point) used when fetching data,
-     * to avoid returning too many datapoints for the requested region
+     * to avoid returning too many datapoints for the requested region.
+     *
+     * The stride is the number of source grid cells that fit in one output pixel along the
+     * shortest side of the image, which is the side the renderer scales to `outputSize`. The
+     * same stride is used along both axes to keep the aspect ratio.
+     *
+     * @param bounds Requested region.
+     * @param resolution Size of a grid cell in the source, in meters.
+     * @param outputSize Length in pixels of the shortest side of the output image.
      * @return int[strideX, strideY]
      */
-    private int[] calculateStride(final LatLonRect bounds){
-        // Hardcoded to a stride of 1; meaning include every single data point in the region.
-        // @TODO(Arve) This should be calculated properly.
-        return new int[] {1, 1};
+    static int[] calculateStride(
+            final LatLonRect bounds,
+            final double resolution,
+            final int outputSize) {
+        final double pixelSize = requiredPixelSize(bounds, outputSize);
+        final int stride = (int) Math.max(1, Math.floor(pixelSize / resolution));
+        return new int[] {stride, stride};
+    }
+
+    /**
+     * @return Size in meters of an output pixel when the shortest side of the region is
+     * rendered with `outputSize` pixels.
+     */
+    static double requiredPixelSize(final LatLonRect bounds, final int outputSize) {
+        final double centerLat = Math.toRadians((bounds.getLatMin() + bounds.getLatMax()) / 2);
+        final double widthMeters
+                = bounds.getWidth() * METERS_PER_DEGREE_LATITUDE * Math.cos(centerLat);
+        final double heightMeters = bounds.getHeight() * METERS_PER_DEGREE_LATITUDE;
+        final double shortestSide = Math.min(widthMeters, heightMeters);
+        if (!(shortestSide > 0.0)) {
+            return 0.0;
+        }
+        return shortestSide / outputSize;
+    }
+
+    /**
+     * @return Size of a grid cell in meters, read from the `horizontal_resolution` attribute
+     * (either global or on the `grid_mapping` variable).
+     */
+    static double readResolution(final GridDataset gds) {
+        Attribute attr = gds.findGlobalAttributeIgnoreCase("horizontal_resolution");
+        if (attr == null) {
+            final ucar.nc2.Variable gridMapping
+                    = gds.getNetcdfFile().findVariable("grid_mapping");
+            if (gridMapping != null) {
+                attr = gridMapping.findAttributeIgnoreCase("horizontal_resolution");
+            }
+        }
+        if (attr == null || attr.getNumericValue() == null) {
+            throw new InternalServerException("Could not parse resolution of dataset.");
+        }
+        return attr.getNumericValue().doubleValue();
+    }
+
+    /**
+     * @return the files to read for the requested bounds, in mosaic priority. Looked up in the
+     * {@link FileCatalog}, falling back to the --netcdf-file when no indexed file covers the
+     * bounds. See {@link #selectFiles(List, double)}.
+     */
+    private List<CatalogEntry> getCorrectFilePath(final AreaBounds bounds){
+        final List<CatalogEntry> found = fileCatalog.find(bounds.getRect(), bounds.getTime());
+        if (found.isEmpty()) {
+            return Collections.singletonList(getNetCdfFileEntry());
+        }
+        return selectFiles(found, requiredPixelSize(bounds.getRect(), bounds.getOutputSize()));
     }
 
     /**
-     * @return path to the file containing the relevant data matching the requested bounds.
-     * Should consider scale when appropriate (i.e. a huge spatial region -> use a coarse data
-     * source.
-     * This should talk to the index instead.
+     * Picks the files to read for an area from the ones covering it, by their resolution.
+     *
+     * The primary grid size is the coarsest one that is still no larger than the output pixel,
+     * so a zoomed out view reads a parent grid instead of its nested child grids, or the finest
+     * one if none is fine enough. Files of that size come first, then the finer ones and then
+     * the coarser ones, each ordered by how close they are to the primary size; they fill in
+     * where the files before them have no data. Among files of the same size the newest comes
+     * first.
+     *
+     * A file finer than needed is left out if a file of a grid size up to the pixel size covers
+     * all of it, and so is a file that a newer file of the same grid size covers.
+     *
+     * @param found Files covering the area, newest first.
+     * @param pixelSize Size of an output pixel in meters.
+     * @return the files, highest priority first.
      */
-    private List<NetCdfDescriptor> getCorrectFilePath(final AreaBounds bounds){
-        final List<NetCdfDescriptor> result = new ArrayList<NetCdfDescriptor>();
-        result.add(new NetCdfDescriptor(
-                FeatureServer.netCdfFile,
-                new Integer[] {640, 515, 42},
-                "1970-01-01")
-        );
+    static List<CatalogEntry> selectFiles(final List<CatalogEntry> found, final double pixelSize) {
+        int primarySize = Integer.MAX_VALUE;
+        int coarsestSufficient = -1;
+        for (final CatalogEntry entry : found) {
+            primarySize = Math.min(primarySize, entry.getGridSize());
+            if (entry.getGridSize() <= pixelSize) {
+                coarsestSufficient = Math.max(coarsestSufficient, entry.getGridSize());
+            }
+        }
+        if (coarsestSufficient >= 0) {
+            primarySize = coarsestSufficient;
+        }
+
+        // Primary first, then finer grids (closest first), then coarser grids (closest first).
+        // Stable, so the newest first order of the catalog is kept within a grid size.
+        final int primary = primarySize;
+        final List<CatalogEntry> ordered = new ArrayList<>(found);
+        ordered.sort(Comparator
+                .comparingInt((CatalogEntry entry) -> entry.getGridSize() <= primary ? 0 : 1)
+                .thenComparingInt(entry -> Math.abs(entry.getGridSize() - primary)));
+
+        final List<CatalogEntry> result = new ArrayList<>(ordered.size());
+        for (final CatalogEntry candidate : ordered) {
+            boolean superseded = false;
+            for (final CatalogEntry kept : result) {
+                final boolean sameSize = kept.getGridSize() == candidate.getGridSize();
+                final boolean sufficientCoarser = candidate.getGridSize() < kept.getGridSize()
+                        && kept.getGridSize() <= pixelSize;
+                if ((sameSize || sufficientCoarser) && contains(kept, candidate)) {
+                    superseded = true;
+                    break;
+                }
+            }
+            if (!superseded) {
+                result.add(candidate);
+            }
+        }
         return result;
     }
 
+    private static boolean contains(final CatalogEntry outer, final CatalogEntry inner) {
+        return outer.getMinLat() <= inner.getMinLat()
+                && outer.getMaxLat() >= inner.getMaxLat()
+                && outer.getMinLon() <= inner.getMinLon()
+                && outer.getMaxLon() >= inner.getMaxLon();
+    }
+
+    /**
+     * @return the --netcdf-file, as covering everything. Its size and modification time are
+     * checked at most once a second.
+     */
+    public CatalogEntry getNetCdfFileEntry() {
+        final long now = System.currentTimeMillis();
+        CatalogEntry entry = netCdfFileEntry;
+        if (entry == null || now - netCdfFileCheckedAt > FILE_CHECK_INTERVAL_MILLIS) {
+            final File file = new File(FeatureServer.netCdfFile);
+            entry = new CatalogEntry(FeatureServer.netCdfFile, -90, 90, -180, 180,
+                    Long.MIN_VALUE, Long.MAX_VALUE, 0, file.length(), file.lastModified());
+            netCdfFileEntry = entry;
+            netCdfFileCheckedAt = now;
+        }
+        return entry;
+    }
+
     /**
      * Get files that contains the given point.
      * @param point location we are interested in
-     * @return NetCdfDescriptor describing the file that contains this point.
-     */
-    private List<NetCdfDescriptor> getCorrectFilePath(final LatLonPoint point){
-        final List<NetCdfDescriptor> result = new ArrayList<NetCdfDescriptor>();
-        // @Todo (Arve) Get this from the indexer.
-        result.add(new NetCdfDescriptor(
-                FeatureServer.netCdfFile,
-                new Integer[] {640, 515, 42},
-                "1970-01-01")
-        );
-        return result;
+     * @param time time we are interested in, or null for any
+     * @return the files that contain this point, finest grid first and newest first within a
+     * grid size.
+     */
+    private List<CatalogEntry> getCorrectFilePath(final LatLonPoint point, final DateTime time){
+        final List<CatalogEntry> found = fileCatalog.find(point, time);
+        // A point needs the finest grid. Stable, so the newest stays first within a grid size.
+        found.sort(Comparator.comparingInt(CatalogEntry::getGridSize));
+        return orNetCdfFile(found);
     }
 
-    public LatLonRect getBoundingBox() throws IOException {
-        // @Todo (Arve) This needs to be maintained by the indexer once we are working with
-        // multiple files.
-        final GridDataset gds = ucar.nc2.dt.grid.GridDataset.open(FeatureServer.netCdfFile);
+    /**
+     * Get files that contain the given point at some time in the range.
+     * @return the files, finest grid first and newest first within a grid size.
+     */
+    private List<CatalogEntry> getCorrectFilePath(
+            final LatLonPoint point, final DateTime from, final DateTime to) {
+        final List<CatalogEntry> found = fileCatalog.find(point, null);
+        found.removeIf(entry -> entry.getEndMillis() < from.getMillis()
+                || entry.getStartMillis() > to.getMillis());
+        found.sort(Comparator.comparingInt(CatalogEntry::getGridSize));
+        return orNetCdfFile(found);
+    }
 
-        final List<Attribute> attrs = gds.getGlobalAttributes();
+    /**
+     * @return the file to read a transect along the path from: the finest grid that
+     * covers all of the path, else the coarsest one covering part of it. The newest file among
+     * grids of the same size.
+     */
+    private CatalogEntry getCorrectFilePath(final List<LatLonPoint> path, final DateTime time) {
+        final LatLonRect rect = new LatLonRect(path.get(0), path.get(0));
+        for (final LatLonPoint point : path) {
+            rect.extend(point);
+        }
+        final List<CatalogEntry> found = fileCatalog.find(rect, time);
+        if (found.isEmpty()) {
+            return getNetCdfFileEntry();
+        }
+        final List<CatalogEntry> covering = new ArrayList<>();
+        for (final CatalogEntry entry : found) {
+            if (entry.getMinLat() <= rect.getLatMin() && entry.getMaxLat() >= rect.getLatMax()
+                    && entry.getMinLon() <= rect.getLonMin()
+                    && entry.getMaxLon() >= rect.getLonMax()) {
+                covering.add(entry);
+            }
+        }
+        // Collections.min keeps the first of equals, which is the newest.
+        final Comparator<CatalogEntry> bySize = Comparator.comparingInt(CatalogEntry::getGridSize);
+        return covering.isEmpty()
+                ? Collections.min(found, bySize.reversed())
+                : Collections.min(covering, bySize);
+    }
+
+    private List<CatalogEntry> orNetCdfFile(final List<CatalogEntry> entries) {
+        return entries.isEmpty() ? Collections.singletonList(getNetCdfFileEntry()) : entries;
+    }
+
+    /**
+     * @return the files an area request reads from, for cache validation. Cheap: the catalog
+     * knows their size and modification time, so no file is opened or stat'ed.
+     */
+    public List<CatalogEntry> getSourceFiles(final AreaBounds bounds) {
+        return getCorrectFilePath(bounds);
+    }
+
+    /**
+     * @return the files a depth profile request reads from, for cache validation.
+     */
+    public List<CatalogEntry> getSourceFiles(final LatLonPoint point, final DateTime time) {
+        return getCorrectFilePath(point, time);
+    }
+
+    /**
+     * @return the files a time series request reads from, for cache validation.
+     */
+    public List<CatalogEntry> getSourceFiles(
+            final LatLonPoint point, final DateTime from, final DateTime to) {
+        return getCorrectFilePath(point, from, to);
+    }
 
-        return gds.getBoundingBox();
+    /**
+     * @return the files a transect request reads from, for cache validation.
+     */
+    public List<CatalogEntry> getSourceFiles(final List<LatLonPoint> path, final DateTime time) {
+        return Collections.singletonList(getCorrectFilePath(path, time));
+    }
 
+    /**
+     * Drops the axes read from a file, e.g. when it has changed or is gone.
+     */
+    public void invalidate(final String filepath) {
+        axes.remove(filepath);
     }
 
+    /**
+     * @return the area covered by the indexed files, or by the --netcdf-file if none are.
+     */
+    public LatLonRect getBoundingBox() throws IOException {
+        final LatLonRect bounds = fileCatalog.getBounds();
+        if (bounds != null) {
+            return bounds;
+        }
+        try (final DatasetHandle handle = datasetRegistry.acquire(FeatureServer.netCdfFile)) {
+            return handle.getDataset().getBoundingBox();
+        }
+    }
+
+    /**
+     * @return the time steps of all the data, ascending. Empty if it has no time axis.
+     */
+    public List<DateTime> getTimeSteps() throws IOException {
+        final TreeSet<DateTime> times = new TreeSet<>();
+        for (final String filepath : getDataFiles()) {
+            times.addAll(getAxes(filepath).times);
+        }
+        return new ArrayList<>(times);
+    }
+
+    /**
+     * @return the depth layers of all the data in meters, ascending. Empty if it has no depth
+     * axis.
+     */
+    public double[] getDepths() throws IOException {
+        final TreeSet<Double> depths = new TreeSet<>();
+        for (final String filepath : getDataFiles()) {
+            for (final double depth : getAxes(filepath).depths) {
+                depths.add(depth);
+            }
+        }
+        final double[] result = new double[depths.size()];
+        int i = 0;
+        for (final double depth : depths) {
+            result[i++] = depth;
+        }
+        return result;
+    }
+
+    /**
+     * @return the grid size of the finest data in meters.
+     */
     public double getResolution() throws IOException {
-        final GridDataset gds = ucar.nc2.dt.grid.GridDataset.open(FeatureServer.netCdfFile);
-        final List<Attribute> globalAttributes = gds.getGlobalAttributes();
-        for (final Attribute attr: globalAttributes) {
-            if (attr.getName().equals("horizontal_resolution")) {
-                return attr.getNumericValue(0).intValue();  // Single value variable.
+        final int finest = fileCatalog.getFinestGridSize();
+        if (finest > 0) {
+            return finest;
+        }
+        try (final DatasetHandle handle = datasetRegistry.acquire(FeatureServer.netCdfFile)) {
+            return readResolution(handle.getDataset());
+        }
+    }
+
+    /**
+     * @return the indexed files, or the --netcdf-file if none are.
+     */
+    private List<String> getDataFiles() {
+        final List<CatalogEntry> entries = fileCatalog.getEntries();
+        if (entries.isEmpty()) {
+            return Collections.singletonList(FeatureServer.netCdfFile);
+        }
+        final List<String> result = new ArrayList<>(entries.size());
+        for (final CatalogEntry entry : entries) {
+            result.add(entry.getFilepath());
+        }
+        return result;
+    }
+
+    private Axes getAxes(final String filepath) throws IOException {
+        final Axes cached = axes.get(filepath);
+        if (cached != null) {
+            return cached;
+        }
+        final List<DateTime> times = new ArrayList<>();
+        final CoordinateAxis1D depthAxis;
+        try (final DatasetHandle handle = datasetRegistry.acquire(filepath)) {
+            final GridCoordSystem gcs = handle.getDataset()
+                    .findGridDatatype(Feature.TEMPERATURE.x())
+                    .getCoordinateSystem();
+            if (gcs.hasTimeAxis()) {
+                for (final Date date : gcs.getTimeAxis1D().getTimeDates()) {
+                    times.add(new DateTime(date, DateTimeZone.UTC));
+                }
             }
+            depthAxis = gcs.getVerticalAxis();
+        }
+        final Axes read = new Axes(times,
+                depthAxis == null ? new double[0] : depthAxis.getCoordValues());
+        axes.put(filepath, read);
+        return read;
+    }
+
+    /**
+     * The time steps and depth layers of one file.
+     */
+    private static final class Axes {
+        final List<DateTime> times;
+        final double[] depths;
+
+        Axes(final List<DateTime> times, final double[] depths) {
+            this.times = times;
+            this.depths = depths;
         }
-        throw new InternalServerException("Could not parse resolution of dataset.");
     }
 }
@@ -0,0 +1,234 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import ucar.ma2.Array;
+import ucar.nc2.dataset.CoordinateAxis1D;
+import ucar.nc2.dt.GridCoordSystem;
+import ucar.nc2.dt.GridDatatype;
+
+/**
+ * Builds the overview pyramids read through {@link OverviewStore}.
+ *
+ * For every scalar {@link Feature} in a file, and every time step and depth layer, the slice is
+ * repeatedly halved along x and y by averaging 2x2 blocks (ignoring NaN) until it gets smaller
+ * than {@link #MIN_OVERVIEW_SIZE}. Builds run on a single background thread, so ingesting a
+ * file never competes with requests for more than one core.
+ *
+ * As an {@link IndexListener} it builds the overviews of files as they are indexed, and deletes
+ * those of files that are removed.
+ *
+ * @author arve
+ */
+public class OverviewBuilder implements IndexListener {
+    private static final Logger LOGGER = Logger.getLogger(OverviewBuilder.class.getName());
+
+    // No level is made whose shortest side is smaller than this.
+    static final int MIN_OVERVIEW_SIZE = 16;
+
+    private final DatasetRegistry datasetRegistry;
+    private final OverviewStore overviewStore;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+        final Thread thread = new Thread(runnable, "overview-builder");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.MIN_PRIORITY);
+        return thread;
+    });
+
+    public OverviewBuilder(
+            final DatasetRegistry datasetRegistry,
+            final OverviewStore overviewStore) {
+        this.datasetRegistry = datasetRegistry;
+        this.overviewStore = overviewStore;
+    }
+
+    /**
+     * Queues a file for building in the background. Overviews that are already up to date are
+     * skipped.
+     */
+    public void buildInBackground(final String sourceFile) {
+        executor.submit(() -> {
+            try {
+                build(sourceFile);
+            } catch (final IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to build overviews for " + sourceFile, e);
+            }
+        });
+    }
+
+    @Override
+    public void indexChanged(final IndexEvent event) {
+        final String sourceFile = event.getFilepath();
+        if (event.getType() != IndexEvent.Type.REMOVED) {
+            buildInBackground(sourceFile);
+            return;
+        }
+        // After the builds already queued, which may include this file.
+        executor.submit(() -> {
+            try {
+                overviewStore.delete(sourceFile);
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete the overviews of " + sourceFile, e);
+            }
+        });
+    }
+
+    /**
+     * Builds the overviews of every scalar variable in a file.
+     */
+    public void build(final String sourceFile) throws IOException {
+        final long start = System.currentTimeMillis();
+        int built = 0;
+        for (final Feature feature : Feature.values()) {
+            if (feature.dimension() != 1) {
+                continue;
+            }
+            final int timeCount;
+            try (final DatasetHandle handle = datasetRegistry.acquire(sourceFile)) {
+                final GridDatatype grid = handle.getDataset().findGridDatatype(feature.x());
+                if (grid == null) {
+                    continue;
+                }
+                final GridCoordSystem gcs = grid.getCoordinateSystem();
+                timeCount = gcs.hasTimeAxis() ? gcs.getTimeAxis1D().getShape()[0] : 0;
+            }
+            // One time step per borrow, so the builder never holds a dataset for long.
+            for (int t = 0; t < Math.max(timeCount, 1); t++) {
+                final int timeIndex = timeCount == 0 ? -1 : t;
+                if (overviewStore.find(sourceFile, feature.x(), timeIndex) != null) {
+                    continue;
+                }
+                try (final DatasetHandle handle = datasetRegistry.acquire(sourceFile)) {
+                    final GridDatatype grid = handle.getDataset().findGridDatatype(feature.x());
+                    buildTimeStep(sourceFile, grid, feature.x(), timeIndex);
+                    built++;
+                }
+            }
+        }
+        if (built > 0) {
+            LOGGER.info("Built " + built + " overviews for " + sourceFile + " in "
+                    + (System.currentTimeMillis() - start) + " ms");
+        }
+    }
+
+    private void buildTimeStep(
+            final String sourceFile,
+            final GridDatatype grid,
+            final String variable,
+            final int timeIndex) throws IOException {
+        final File source = new File(sourceFile);
+        final CoordinateAxis1D depthAxis = grid.getCoordinateSystem().getVerticalAxis();
+        final int depthCount = depthAxis == null ? 1 : depthAxis.getShape()[0];
+
+        final List<int[]> shapes = levelShapes(
+                grid.getXDimension().getLength(), grid.getYDimension().getLength());
+        if (shapes.size() <= 1) {
+            return; // Too small to be worth it.
+        }
+        final int[] widths = new int[shapes.size()];
+        final int[] heights = new int[shapes.size()];
+        for (int level = 0; level < shapes.size(); level++) {
+            widths[level] = shapes.get(level)[0];
+            heights[level] = shapes.get(level)[1];
+        }
+
+        final Path target = overviewStore.pathFor(sourceFile, variable, timeIndex);
+        Files.createDirectories(target.getParent());
+        final Path temporary = target.resolveSibling(target.getFileName() + ".tmp");
+        try (final FileChannel channel = FileChannel.open(temporary,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE)) {
+            final ByteBuffer header
+                    = ByteBuffer.allocate(OverviewStore.headerSize(widths.length - 1));
+            OverviewStore.writeHeader(
+                    header, source.lastModified(), source.length(), depthCount, widths, heights);
+            header.flip();
+            writeFully(channel, header);
+
+            for (int z = 0; z < depthCount; z++) {
+                final int depthIndex = depthAxis == null ? -1 : z;
+                final Array slice = grid.readDataSlice(timeIndex, depthIndex, -1, -1);
+                float[] values = grid.setMissingToNaN((float[]) slice.get1DJavaArray(float.class));
+                for (int level = 1; level < widths.length; level++) {
+                    values = halve(values, widths[level - 1], heights[level - 1],
+                            widths[level], heights[level]);
+                    final ByteBuffer buffer = ByteBuffer.allocate(values.length * 4);
+                    buffer.asFloatBuffer().put(values);
+                    writeFully(channel, buffer);
+                }
+            }
+        }
+        Files.move(temporary, target,
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * @return [width, height] of level 0 (the source) and each overview level.
+     */
+    static List<int[]> levelShapes(final int width, final int height) {
+        final List<int[]> shapes = new ArrayList<>();
+        int w = width;
+        int h = height;
+        shapes.add(new int[] {w, h});
+        while (Math.min((w + 1) / 2, (h + 1) / 2) >= MIN_OVERVIEW_SIZE) {
+            w = (w + 1) / 2;
+            h = (h + 1) / 2;
+            shapes.add(new int[] {w, h});
+        }
+        return shapes;
+    }
+
+    /**
+     * Halves a row major grid by taking the mean of each 2x2 block, skipping NaN. A block with
+     * only NaN (land) stays NaN. Odd edges average the cells that exist.
+     */
+    static float[] halve(
+            final float[] source,
+            final int width,
+            final int height,
+            final int newWidth,
+            final int newHeight) {
+        final float[] result = new float[newWidth * newHeight];
+        for (int y = 0; y < newHeight; y++) {
+            final int y0 = 2 * y;
+            final int y1 = Math.min(y0 + 1, height - 1);
+            for (int x = 0; x < newWidth; x++) {
+                final int x0 = 2 * x;
+                final int x1 = Math.min(x0 + 1, width - 1);
+                float sum = 0;
+                int count = 0;
+                for (int sy = y0; sy <= y1; sy++) {
+                    for (int sx = x0; sx <= x1; sx++) {
+                        final float value = source[sy * width + sx];
+                        if (!Float.isNaN(value)) {
+                            sum += value;
+                            count++;
+                        }
+                    }
+                }
+                result[y * newWidth + x] = count == 0 ? Float.NaN : sum / count;
+            }
+        }
+        return result;
+    }
+
+    private static void writeFully(final FileChannel channel, final ByteBuffer buffer)
+            throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Memory-mapped overview pyramids built by {@link OverviewBuilder}.
+ *
+ * Every (source file, variable, time step) has one overview file holding, for every depth
+ * layer, the levels 1..N of the pyramid. Level L is the source grid downsampled by 2^L along
+ * x and y; level 0 is the source itself and is not stored.
+ *
+ * File layout (big endian):
+ * <pre>
+ *   int    MAGIC
+ *   long   source file last modified (millis)
+ *   long   source file size
+ *   int    number of depth layers
+ *   int    number of levels (N)
+ *   int[2] width, height of level 1..N
+ *   float  data: for each depth layer, for each level, height * width values, row major
+ * </pre>
+ *
+ * @author arve
+ */
+public class OverviewStore {
+    private static final Logger LOGGER = Logger.getLogger(OverviewStore.class.getName());
+    static final int MAGIC = 0x4F565231; // "OVR1"
+    static final String SUFFIX = ".ovr";
+
+    private final Path directory;
+    private final Map<Path, Overview> mapped = new ConcurrentHashMap<>();
+
+    public OverviewStore(final Path directory) {
+        this.directory = directory;
+    }
+
+    public Path getDirectory() { return directory; }
+
+    /**
+     * @param timeIndex Time index, or -1 if the variable has no time axis.
+     * @return The overview of a variable at a time step, or null if none has been built or it
+     * was built from a different version of the source file.
+     */
+    Overview find(final String sourceFile, final String variable, final int timeIndex) {
+        final Path path = pathFor(sourceFile, variable, timeIndex);
+        final Overview cached = mapped.get(path);
+        final File source = new File(sourceFile);
+        if (cached != null) {
+            if (cached.matches(source)) {
+                return cached;
+            }
+            mapped.remove(path, cached);
+        }
+        if (!path.toFile().isFile()) {
+            return null;
+        }
+        try {
+            final Overview overview = Overview.map(path);
+            if (!overview.matches(source)) {
+                return null;
+            }
+            mapped.put(path, overview);
+            return overview;
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not map overview " + path, e);
+            return null;
+        }
+    }
+
+    /**
+     * Forgets the mapped overviews of a source file so they are re-validated on next use.
+     */
+    public void invalidate(final String sourceFile) {
+        final Path sourceDirectory = directoryFor(sourceFile);
+        mapped.keySet().removeIf(path -> path.startsWith(sourceDirectory));
+    }
+
+    /**
+     * Forgets and deletes the overviews of a source file, e.g. when it is gone.
+     */
+    public void delete(final String sourceFile) throws IOException {
+        invalidate(sourceFile);
+        final Path sourceDirectory = directoryFor(sourceFile);
+        if (!Files.isDirectory(sourceDirectory)) {
+            return;
+        }
+        Files.walkFileTree(sourceDirectory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+                    throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(final Path dir, final IOException e)
+                    throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    Path directoryFor(final String sourceFile) {
+        final Path source = Paths.get(sourceFile).toAbsolutePath();
+        // The hash keeps files with the same name in different directories apart.
+        final String name = source.getFileName() + "-"
+                + Integer.toHexString(source.toString().hashCode());
+        return directory.resolve(name);
+    }
+
+    Path pathFor(final String sourceFile, final String variable, final int timeIndex) {
+        return directoryFor(sourceFile)
+                .resolve(variable)
+                .resolve("t" + Math.max(timeIndex, 0) + SUFFIX);
+    }
+
+    /**
+     * One mapped overview file.
+     */
+    static class Overview {
+        private final long sourceModified;
+        private final long sourceSize;
+        private final int depthCount;
+        private final int[] widths;
+        private final int[] heights;
+        // Offset (in floats) of each level within a depth layer.
+        private final int[] levelOffsets;
+        private final int depthLayerSize;
+        private final FloatBuffer data;
+
+        private Overview(final MappedByteBuffer buffer) throws IOException {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not an overview file.");
+            }
+            sourceModified = buffer.getLong();
+            sourceSize = buffer.getLong();
+            depthCount = buffer.getInt();
+            final int levelCount = buffer.getInt();
+            widths = new int[levelCount + 1];
+            heights = new int[levelCount + 1];
+            levelOffsets = new int[levelCount + 1];
+            int offset = 0;
+            for (int level = 1; level <= levelCount; level++) {
+                widths[level] = buffer.getInt();
+                heights[level] = buffer.getInt();
+                levelOffsets[level] = offset;
+                offset += widths[level] * heights[level];
+            }
+            depthLayerSize = offset;
+            data = buffer.slice().asFloatBuffer();
+            if (data.capacity() < depthLayerSize * depthCount) {
+                throw new IOException("Truncated overview file.");
+            }
+        }
+
+        static Overview map(final Path path) throws IOException {
+            try (final FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                return new Overview(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()));
+            }
+        }
+
+        boolean matches(final File source) {
+            return source.lastModified() == sourceModified && source.length() == sourceSize;
+        }
+
+        /**
+         * @return Highest level stored. 0 if the source was too small to have overviews.
+         */
+        int levelCount() { return widths.length - 1; }
+
+        int width(final int level) { return widths[level]; }
+
+        int height(final int level) { return heights[level]; }
+
+        /**
+         * @param level Level 1..levelCount.
+         * @param depthIndex Depth layer, or -1 if the variable has no depth axis.
+         * @return a view of a whole level.
+         */
+        FeatureGrid level(final int level, final int depthIndex) {
+            final int base = Math.max(depthIndex, 0) * depthLayerSize + levelOffsets[level];
+            return FeatureGrid.wrap(data, base, widths[level], heights[level], widths[level], 1);
+        }
+    }
+
+    /**
+     * Header size in bytes for an overview with the given number of levels.
+     */
+    static int headerSize(final int levelCount) {
+        return 4 + 8 + 8 + 4 + 4 + 8 * levelCount;
+    }
+
+    static void writeHeader(
+            final ByteBuffer buffer,
+            final long sourceModified,
+            final long sourceSize,
+            final int depthCount,
+            final int[] widths,
+            final int[] heights) {
+        final int levelCount = widths.length - 1;
+        buffer.putInt(MAGIC);
+        buffer.putLong(sourceModified);
+        buffer.putLong(sourceSize);
+        buffer.putInt(depthCount);
+        buffer.putInt(levelCount);
+        for (int level = 1; level <= levelCount; level++) {
+            buffer.putInt(widths[level]);
+            buffer.putInt(heights[level]);
+        }
+    }
+}
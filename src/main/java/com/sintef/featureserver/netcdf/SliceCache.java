@@ -0,0 +1,232 @@
+package com.sintef.featureserver.netcdf;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+
+/**
+ * Size bounded LRU cache of decoded horizontal slices, keyed by file, variable, time index and
+ * depth index.
+ *
+ * Slices are stored as float32 in direct (off-heap) buffers, so a large cache does not add to
+ * the garbage collected heap. Direct memory is limited by -XX:MaxDirectMemorySize, which should
+ * be larger than the byte budget.
+ *
+ * Entries of a file are dropped when its modification time or size changes. The file is checked
+ * at most once per {@link #STAMP_CHECK_INTERVAL_MILLIS}.
+ *
+ * @author arve
+ */
+public class SliceCache {
+    private static final long STAMP_CHECK_INTERVAL_MILLIS = 1000;
+
+    private final long maxBytes;
+    private final LinkedHashMap<Key, Slice> slices = new LinkedHashMap<>(64, 0.75f, true);
+    private final Map<String, FileStamp> stamps = new ConcurrentHashMap<>();
+    private long bytes = 0;
+
+    // Metrics
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong invalidations = new AtomicLong();
+
+    /**
+     * @param maxBytes Byte budget for the cached slices. 0 disables the cache.
+     */
+    public SliceCache(final long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    public boolean isEnabled() { return maxBytes > 0; }
+
+    /**
+     * @return the cached slice, or null if it is not cached or the file has changed.
+     */
+    Slice get(final String filename, final String variable, final int timeIndex,
+            final int depthIndex) {
+        final FileStamp stamp = checkStamp(filename);
+        final Key key = new Key(filename, variable, timeIndex, depthIndex);
+        final Slice slice;
+        synchronized (this) {
+            slice = slices.get(key);
+        }
+        if (slice == null || !slice.stamp.sameFileAs(stamp)) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return slice;
+    }
+
+    /**
+     * Copies a row major slice into off-heap memory and caches it.
+     * @return the cached slice.
+     */
+    Slice put(final String filename, final String variable, final int timeIndex,
+            final int depthIndex, final float[] values, final int width, final int height) {
+        final FileStamp stamp = checkStamp(filename);
+        final ByteBuffer buffer = ByteBuffer
+                .allocateDirect(values.length * 4)
+                .order(ByteOrder.nativeOrder());
+        final FloatBuffer data = buffer.asFloatBuffer();
+        data.put(values);
+        final Slice slice = new Slice(data, width, height, stamp);
+        if (slice.byteSize() > maxBytes) {
+            return slice;
+        }
+        final Key key = new Key(filename, variable, timeIndex, depthIndex);
+        synchronized (this) {
+            final Slice previous = slices.put(key, slice);
+            if (previous != null) {
+                bytes -= previous.byteSize();
+            }
+            bytes += slice.byteSize();
+            final Iterator<Slice> eldest = slices.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().byteSize();
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+        return slice;
+    }
+
+    /**
+     * Drops every cached slice of a file.
+     */
+    public void invalidate(final String filename) {
+        stamps.remove(filename);
+        dropSlices(filename);
+    }
+
+    private void dropSlices(final String filename) {
+        synchronized (this) {
+            final Iterator<Map.Entry<Key, Slice>> entries = slices.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<Key, Slice> entry = entries.next();
+                if (entry.getKey().filename.equals(filename)) {
+                    bytes -= entry.getValue().byteSize();
+                    entries.remove();
+                    invalidations.incrementAndGet();
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the current stamp of a file, invalidating its slices if it has changed since the
+     * last check.
+     */
+    private FileStamp checkStamp(final String filename) {
+        final long now = System.currentTimeMillis();
+        final FileStamp stamp = stamps.get(filename);
+        if (stamp != null && now - stamp.checkedAt < STAMP_CHECK_INTERVAL_MILLIS) {
+            return stamp;
+        }
+        final File file = new File(filename);
+        final FileStamp current = new FileStamp(file.lastModified(), file.length(), now);
+        final boolean[] changed = new boolean[1];
+        // Atomic, so threads checking the same file at once agree on one stamp.
+        final FileStamp result = stamps.compute(filename, (name, previous) -> {
+            if (previous != null && previous.sameFileAs(current)) {
+                previous.checkedAt = now;
+                return previous;
+            }
+            changed[0] = previous != null;
+            return current;
+        });
+        if (changed[0]) {
+            dropSlices(filename);
+        }
+        return result;
+    }
+
+    public JSONObject getStatistics() {
+        synchronized (this) {
+            return new JSONObject()
+                    .put("slices", slices.size())
+                    .put("bytes", bytes)
+                    .put("maxBytes", maxBytes)
+                    .put("hits", hits.get())
+                    .put("misses", misses.get())
+                    .put("evictions", evictions.get())
+                    .put("invalidations", invalidations.get());
+        }
+    }
+
+    /**
+     * A cached slice. The data is shared and must not be modified.
+     */
+    static class Slice {
+        final FloatBuffer data;
+        final int width;
+        final int height;
+        private final FileStamp stamp;
+
+        Slice(final FloatBuffer data, final int width, final int height, final FileStamp stamp) {
+            this.data = data;
+            this.width = width;
+            this.height = height;
+            this.stamp = stamp;
+        }
+
+        long byteSize() { return (long) width * height * 4; }
+    }
+
+    private static class FileStamp {
+        final long lastModified;
+        final long size;
+        volatile long checkedAt;
+
+        FileStamp(final long lastModified, final long size, final long checkedAt) {
+            this.lastModified = lastModified;
+            this.size = size;
+            this.checkedAt = checkedAt;
+        }
+
+        boolean sameFileAs(final FileStamp other) {
+            return lastModified == other.lastModified && size == other.size;
+        }
+    }
+
+    private static class Key {
+        final String filename;
+        final String variable;
+        final int timeIndex;
+        final int depthIndex;
+
+        Key(final String filename, final String variable, final int timeIndex,
+                final int depthIndex) {
+            this.filename = filename;
+            this.variable = variable;
+            this.timeIndex = timeIndex;
+            this.depthIndex = depthIndex;
+        }
+
+        @Override
+        public boolean equals(final Object o) {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            final Key other = (Key) o;
+            return timeIndex == other.timeIndex
+                    && depthIndex == other.depthIndex
+                    && filename.equals(other.filename)
+                    && variable.equals(other.variable);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(filename, variable, timeIndex, depthIndex);
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.sintef.featureserver.netcdf;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+
+/**
+ * Values of a feature at one location over a range of time steps, ordered by time.
+ *
+ * @author arve
+ */
+public final class TimeSeries {
+    private final long[] times;
+    private final float[] values;
+
+    /**
+     * @param times Time steps in milliseconds since the epoch, ascending.
+     * @param values Value at each time step, NaN where it is missing.
+     */
+    public TimeSeries(final long[] times, final float[] values) {
+        if (times.length != values.length) {
+            throw new IllegalArgumentException("Times and values have different lengths.");
+        }
+        this.times = times;
+        this.values = values;
+    }
+
+    public int size() { return times.length; }
+
+    public long getMillis(final int index) { return times[index]; }
+
+    public DateTime getTime(final int index) { return new DateTime(times[index], DateTimeZone.UTC); }
+
+    public float getValue(final int index) { return values[index]; }
+}
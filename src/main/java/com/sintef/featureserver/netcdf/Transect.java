@@ -0,0 +1,36 @@
+package com.sintef.featureserver.netcdf;
+
+/**
+ * A vertical section of a feature along a path: distance along the path by depth.
+ *
+ * Columns are samples spaced evenly along the path, starting at its first point. Like the other
+ * grids run south to north, rows run from the deepest layer up to the surface, so the surface is
+ * at the top of a rendered image.
+ *
+ * @author arve
+ */
+public final class Transect {
+    private final FeatureGrid grid;
+    private final double spacing;
+    private final double[] depths;
+
+    /**
+     * @param grid Values with a column per sample and a row per depth layer.
+     * @param spacing Distance between samples in meters.
+     * @param depths Depth of each row in meters, deepest first.
+     */
+    public Transect(final FeatureGrid grid, final double spacing, final double[] depths) {
+        if (depths.length != grid.getHeight()) {
+            throw new IllegalArgumentException("Expected a depth for each row.");
+        }
+        this.grid = grid;
+        this.spacing = spacing;
+        this.depths = depths;
+    }
+
+    public FeatureGrid getGrid() { return grid; }
+
+    public double getSpacing() { return spacing; }
+
+    public double[] getDepths() { return depths; }
+}
@@ -0,0 +1,74 @@
+package com.sintef.featureserver.netcdf;
+
+import java.nio.FloatBuffer;
+
+/**
+ * The two components of a vector feature over the same grid.
+ *
+ * @author arve
+ */
+public final class VectorGrid {
+    private final FeatureGrid x;
+    private final FeatureGrid y;
+
+    /**
+     * @param x Component along the x axis (e.g. eastward).
+     * @param y Component along the y axis (e.g. northward). Same shape as x.
+     */
+    public VectorGrid(final FeatureGrid x, final FeatureGrid y) {
+        if (x.getWidth() != y.getWidth() || x.getHeight() != y.getHeight()) {
+            throw new IllegalArgumentException("Vector components have different shapes.");
+        }
+        this.x = x;
+        this.y = y;
+    }
+
+    public FeatureGrid getX() { return x; }
+
+    public FeatureGrid getY() { return y; }
+
+    public int getWidth() { return x.getWidth(); }
+
+    public int getHeight() { return x.getHeight(); }
+
+    /**
+     * @return a new grid with the length of each vector. NaN where either component is missing.
+     */
+    public FeatureGrid magnitude() {
+        return combine((u, v) -> (float) Math.sqrt(u * u + v * v));
+    }
+
+    /**
+     * Runs a kernel over both components in a single pass, reading the backing buffers directly.
+     */
+    private FeatureGrid combine(final Kernel kernel) {
+        final int width = getWidth();
+        final int height = getHeight();
+        final FloatBuffer xData = x.buffer();
+        final FloatBuffer yData = y.buffer();
+        final int xStep = x.getColumnStride();
+        final int yStep = y.getColumnStride();
+        final float xOffset = x.valueOffset();
+        final float yOffset = y.valueOffset();
+        final float[] result = new float[width * height];
+        int i = 0;
+        for (int row = 0; row < height; row++) {
+            int xIndex = x.indexOf(row, 0);
+            int yIndex = y.indexOf(row, 0);
+            for (int column = 0; column < width; column++) {
+                final float u = xData.get(xIndex) + xOffset;
+                final float v = yData.get(yIndex) + yOffset;
+                result[i++] = x.isMissing(u) || y.isMissing(v) ? Float.NaN : kernel.apply(u, v);
+                xIndex += xStep;
+                yIndex += yStep;
+            }
+        }
+        return FeatureGrid.wrap(result, width, height)
+                .withDecimation(x.getDecimation())
+                .withGeoTransform(x.getGeoTransform());
+    }
+
+    private interface Kernel {
+        float apply(float u, float v);
+    }
+}
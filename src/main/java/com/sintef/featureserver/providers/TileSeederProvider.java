@@ -0,0 +1,42 @@
+package com.sintef.featureserver.providers;
+
+import com.sintef.featureserver.wmts.TileSeeder;
+import com.sun.jersey.core.spi.component.ComponentContext;
+import com.sun.jersey.core.spi.component.ComponentScope;
+import com.sun.jersey.spi.inject.Injectable;
+import com.sun.jersey.spi.inject.InjectableProvider;
+import java.lang.reflect.Type;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.ext.Provider;
+
+/**
+ * A class that has a static reference to the WMTS tile seeder.
+ * Used by state-less API classes in this folder.
+ *
+ * @author arve
+ */
+@Provider
+public class TileSeederProvider implements InjectableProvider<Context, Type> {
+    public static TileSeeder value = null;
+
+    @Override
+    public ComponentScope getScope() {
+        return ComponentScope.Singleton;
+    }
+
+    @Override
+    public Injectable getInjectable(
+            final ComponentContext componentContext,
+            final Context context,
+            final Type type) {
+        if (!type.equals(TileSeeder.class)) {
+            return null;
+        }
+        return new Injectable<TileSeeder>() {
+            @Override
+            public TileSeeder getValue() {
+                return value;
+            }
+        };
+    }
+}
@@ -0,0 +1,121 @@
+package com.sintef.featureserver.rs.admin;
+
+import com.sintef.featureserver.FeatureServer;
+import com.sintef.featureserver.exception.ForbiddenException;
+import com.sintef.featureserver.exception.InternalServerException;
+import com.sintef.featureserver.wmts.SeedJob;
+import com.sintef.featureserver.wmts.TileSeeder;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+
+/**
+ * Starts and follows tile seeding jobs.
+ *
+ * Seeding keeps the render threads busy for a long time, so starting a job requires the
+ * --admin-token, or a client on the local host if no token is configured.
+ *
+ * @author arve
+ */
+@Path("admin/seed")
+@Produces(MediaType.APPLICATION_JSON)
+public class SeedResource {
+    public static final String TOKEN_HEADER = "X-Admin-Token";
+
+    private final TileSeeder tileSeeder;
+
+    public SeedResource(@Context final TileSeeder tileSeeder) {
+        this.tileSeeder = tileSeeder;
+    }
+
+    /**
+     * Starts seeding tiles in the background.
+     *
+     * @param layers Comma separated layer identifiers. All layers if not given.
+     * @param minZoom First zoom level.
+     * @param maxZoom Last zoom level. The deepest level if not given.
+     * @param times Comma separated ISO 8601 times. Every time step if not given.
+     * @param depths Comma separated depths in meters. Every depth if not given.
+     * @param token The admin token, if one is configured.
+     * @return 202 Accepted with the job.
+     * @throws ForbiddenException if the client may not start jobs.
+     */
+    @POST
+    public Response startSeeding(
+            @QueryParam("layers") @DefaultValue("") final String layers,
+            @QueryParam("minZoom") @DefaultValue("0") final int minZoom,
+            @QueryParam("maxZoom") @DefaultValue("-1") final int maxZoom,
+            @QueryParam("times") @DefaultValue("") final String times,
+            @QueryParam("depths") @DefaultValue("") final String depths,
+            @HeaderParam(TOKEN_HEADER) final String token,
+            @Context final HttpServletRequest request) {
+        checkAllowed(token, request.getRemoteAddr());
+        final SeedJob job;
+        try {
+            job = tileSeeder.seed(layers, minZoom, maxZoom, times, depths);
+        } catch (final IOException e) {
+            throw new InternalServerException("Could not read data file.", e);
+        }
+        return Response.status(Response.Status.ACCEPTED).entity(job.toJson().toString()).build();
+    }
+
+    /**
+     * @return the recent jobs with their progress, newest first.
+     */
+    @GET
+    public Response jobs() {
+        return Response.ok(tileSeeder.getJobs().toString()).build();
+    }
+
+    @GET
+    @Path("{id}")
+    public Response job(@PathParam("id") final int id) {
+        final SeedJob job = tileSeeder.getJob(id);
+        if (job == null) {
+            return Response.status(Response.Status.NOT_FOUND).build();
+        }
+        return Response.ok(job.toJson().toString()).build();
+    }
+
+    /**
+     * @throws ForbiddenException unless the token matches the configured one, or no token is
+     * configured and the client is on the local host.
+     */
+    private static void checkAllowed(final String token, final String remoteAddress) {
+        final String adminToken = FeatureServer.adminToken;
+        if (!adminToken.isEmpty()) {
+            // Compared in constant time, so the token cannot be guessed from response times.
+            if (token == null || !MessageDigest.isEqual(
+                    adminToken.getBytes(StandardCharsets.UTF_8),
+                    token.getBytes(StandardCharsets.UTF_8))) {
+                throw new ForbiddenException("Missing or wrong " + TOKEN_HEADER + " header.");
+            }
+            return;
+        }
+        if (!isLocalHost(remoteAddress)) {
+            throw new ForbiddenException("Seed jobs can only be started from the local host.");
+        }
+    }
+
+    private static boolean isLocalHost(final String address) {
+        try {
+            return address != null && InetAddress.getByName(address).isLoopbackAddress();
+        } catch (final UnknownHostException e) {
+            return false;
+        }
+    }
+}
@@ -1,22 +1,26 @@
 package com.sintef.featureserver.rs.features;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.BadRequestException;
 import com.sintef.featureserver.exception.InternalServerException;
 import com.sintef.featureserver.netcdf.AreaBounds;
 import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.netcdf.VectorGrid;
+import com.sintef.featureserver.util.CacheHeaders;
 import com.sintef.featureserver.util.ImageRenderer;
 import com.sintef.featureserver.util.RsUtil;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import ucar.ma2.InvalidRangeException;
 import ucar.unidata.geoloc.LatLonPoint;
 import ucar.unidata.geoloc.LatLonPointImpl;
@@ -53,7 +57,8 @@ public class CurrentMagnitude {
             @QueryParam("endLat") final Float endLat,
             @QueryParam("endLon") final Float endLon,
             @QueryParam("depth") final Float depth,
-            @QueryParam("time") final String time)throws IOException {
+            @QueryParam("time") final String time,
+            @Context final Request request)throws IOException {
 
         RsUtil.validateAreaQueryParams(startLat, startLon, endLat, endLon, depth, time);
 
@@ -67,7 +72,15 @@ public class CurrentMagnitude {
         final LatLonPoint topLeft = new LatLonPointImpl(startLat, startLon);
         final LatLonPoint bottomRight = new LatLonPointImpl(endLat, endLon);
         final AreaBounds bounds = new AreaBounds(topLeft, bottomRight, depth, dt);
-        final double[][][] areaData;
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(bounds), FeatureServer.maxAgeArea,
+                "current-magnitude", startLat, startLon, endLat, endLon, depth,
+                dt.withZone(DateTimeZone.UTC));
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
+        final VectorGrid areaData;
 
         try {
 			areaData = netCdfManager.getVectorArea(bounds, Feature.WATER_VELOCITY);
@@ -76,15 +89,14 @@ public class CurrentMagnitude {
         } catch (final InvalidRangeException e) {
             throw new BadRequestException("Invalid ranges provided.", e);
         }
-
-        final double[][] areaMagnitudes = RsUtil.getMagnitudesFromVectors(areaData);
+        final FeatureGrid areaMagnitudes = areaData.magnitude();
 
         final BufferedImage image
                 = ImageRenderer.render(areaMagnitudes, Feature.CURRENT_MAGNITUDE, false);
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        final byte[] imageData = baos.toByteArray();
-        return Response.ok(imageData).type("image/png").build();
+        return cacheHeaders.apply(Response.ok(RsUtil.toPng(image)))
+                .type("image/png")
+                .header(RsUtil.STRIDE_HEADER, RsUtil.strideToHeader(areaMagnitudes))
+                .build();
     }
 
 }
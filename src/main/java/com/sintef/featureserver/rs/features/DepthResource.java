@@ -9,23 +9,25 @@
  */
 package com.sintef.featureserver.rs.features;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.BadRequestException;
 import com.sintef.featureserver.exception.InternalServerException;
 import com.sintef.featureserver.netcdf.AreaBounds;
 import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.util.CacheHeaders;
 import com.sintef.featureserver.util.ImageRenderer;
 import com.sintef.featureserver.util.RsUtil;
 
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 
-import javax.imageio.ImageIO;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 
 import ucar.ma2.InvalidRangeException;
@@ -74,7 +76,8 @@ public class DepthResource {
 			@QueryParam("startLat") final Float startLat,
 			@QueryParam("startLon") final Float startLon,
 			@QueryParam("endLat") final Float endLat,
-			@QueryParam("endLon") final Float endLon)
+			@QueryParam("endLon") final Float endLon,
+			@Context final Request request)
 			throws IOException {
 
 		RsUtil.checkNotNull(
@@ -86,7 +89,14 @@ public class DepthResource {
 		final LatLonPoint topLeft = new LatLonPointImpl(startLat, startLon);
 		final LatLonPoint bottomRight = new LatLonPointImpl(endLat, endLon);
 		final AreaBounds bounds = new AreaBounds(topLeft, bottomRight);
-		final double[][] areaData;
+		final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+				netCdfManager.getSourceFiles(bounds), FeatureServer.maxAgeArea,
+				"depth", startLat, startLon, endLat, endLon);
+		final Response notModified = cacheHeaders.evaluate(request);
+		if (notModified != null) {
+			return notModified;
+		}
+		final FeatureGrid areaData;
 
 		try {
 			areaData = netCdfManager.getScalarArea(bounds, Feature.DEPTH);
@@ -95,13 +105,12 @@ public class DepthResource {
 		} catch (final InvalidRangeException e) {
 			throw new BadRequestException("Invalid ranges provided.", e);
 		}
-
 		// @TODO(Arve) Image size
 		final BufferedImage image = ImageRenderer.render(areaData, Feature.DEPTH, false);
-		final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-		ImageIO.write(image, "png", baos);
-		final byte[] imageData = baos.toByteArray();
-		return Response.ok(imageData).type("image/png").build();
+		return cacheHeaders.apply(Response.ok(RsUtil.toPng(image)))
+				.type("image/png")
+				.header(RsUtil.STRIDE_HEADER, RsUtil.strideToHeader(areaData))
+				.build();
 	}
 
 }
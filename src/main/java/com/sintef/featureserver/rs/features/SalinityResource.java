@@ -1,24 +1,27 @@
 package com.sintef.featureserver.rs.features;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.BadRequestException;
 import com.sintef.featureserver.exception.InternalServerException;
 import com.sintef.featureserver.netcdf.AreaBounds;
 import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.util.CacheHeaders;
 import com.sintef.featureserver.util.ImageRenderer;
 import com.sintef.featureserver.util.RsUtil;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.json.JSONObject;
 import ucar.ma2.InvalidRangeException;
 import ucar.unidata.geoloc.LatLonPoint;
@@ -54,7 +57,8 @@ public class SalinityResource {
             @QueryParam("endLat") final Float endLat,
             @QueryParam("endLon") final Float endLon,
             @QueryParam("depth") final Float depth,
-            @QueryParam("time") final String time)throws IOException {
+            @QueryParam("time") final String time,
+            @Context final Request request)throws IOException {
 
         RsUtil.validateAreaQueryParams(startLat, startLon, endLat, endLon, depth, time);
 
@@ -68,7 +72,15 @@ public class SalinityResource {
         final LatLonPoint upperLeft = new LatLonPointImpl(startLat, startLon);
         final LatLonPoint lowerRight = new LatLonPointImpl(endLat, endLon);
         final AreaBounds bounds = new AreaBounds(upperLeft, lowerRight, depth, dt);
-        final double[][] areaData;
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(bounds), FeatureServer.maxAgeArea,
+                "salinity", startLat, startLon, endLat, endLon, depth,
+                dt.withZone(DateTimeZone.UTC));
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
+        final FeatureGrid areaData;
         try {
             areaData = netCdfManager.getScalarArea(bounds, Feature.SALINITY);
         } catch (final IOException e) {
@@ -76,12 +88,11 @@ public class SalinityResource {
         } catch (final InvalidRangeException e) {
             throw new BadRequestException("Invalid ranges provided.", e);
         }
-
         final BufferedImage image = ImageRenderer.render(areaData, Feature.SALINITY, false);
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        final byte[] imageData = baos.toByteArray();
-        return Response.ok(imageData).type("image/png").build();
+        return cacheHeaders.apply(Response.ok(RsUtil.toPng(image)))
+                .type("image/png")
+                .header(RsUtil.STRIDE_HEADER, RsUtil.strideToHeader(areaData))
+                .build();
     }
 
     @GET
@@ -90,7 +101,8 @@ public class SalinityResource {
     public Response salinityProfile(
             @QueryParam("lat") final Float latitude,
             @QueryParam("lon") final Float longitude,
-            @QueryParam("time") final String time) throws IOException {
+            @QueryParam("time") final String time,
+            @Context final Request request) throws IOException {
         RsUtil.validateProfileQueryParams(latitude, longitude, time);
         final DateTime dt;
         try {
@@ -99,6 +111,13 @@ public class SalinityResource {
             throw new BadRequestException("Time format not recognized", e);
         }
         final LatLonPoint location = new LatLonPointImpl(latitude, longitude);
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(location, dt), FeatureServer.maxAgeProfile,
+                "salinity-profile", latitude, longitude, dt.withZone(DateTimeZone.UTC));
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
         final double[] depthProfile;
         try {
             depthProfile = netCdfManager.readDepthProfile(location, dt, Feature.SALINITY);
@@ -113,7 +132,7 @@ public class SalinityResource {
                                 .put( "latitude", latitude)
                                 .put("longitude", longitude)
                                 .put("time", time));
-        return Response.ok(json.toString()).build();
+        return cacheHeaders.apply(Response.ok(json.toString())).build();
     }
 
 
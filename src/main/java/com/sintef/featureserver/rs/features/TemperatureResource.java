@@ -9,17 +9,18 @@
  */
 package com.sintef.featureserver.rs.features;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.exception.BadRequestException;
 import com.sintef.featureserver.exception.InternalServerException;
 import com.sintef.featureserver.netcdf.AreaBounds;
 import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.util.CacheHeaders;
 import com.sintef.featureserver.util.ImageRenderer;
 import com.sintef.featureserver.util.RsUtil;
 import java.awt.image.BufferedImage;
-import java.io.ByteArrayOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
@@ -27,8 +28,10 @@ import javax.ws.rs.Produces;
 import javax.ws.rs.QueryParam;
 import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
 import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
 import org.json.JSONObject;
 import ucar.ma2.InvalidRangeException;
 import ucar.unidata.geoloc.LatLonPoint;
@@ -87,7 +90,8 @@ public class TemperatureResource {
             @QueryParam("endLon") final Float endLon,
             @QueryParam("depth") final Float depth,
             @QueryParam("time") final String time,
-            @QueryParam("scale") @DefaultValue("Celsius") final String scale)
+            @QueryParam("scale") @DefaultValue("Celsius") final String scale,
+            @Context final Request request)
             throws IOException {
 
         RsUtil.validateAreaQueryParams(startLat, startLon, endLat, endLon, depth, time);
@@ -98,39 +102,46 @@ public class TemperatureResource {
         } catch (final IllegalArgumentException e) {
             throw new BadRequestException("Time format not recognized", e);
         }
+        final boolean celsius;
+        if (scale.equalsIgnoreCase("C") || scale.equalsIgnoreCase("Celsius")) {
+            celsius = true;
+        } else if (scale.equalsIgnoreCase("K") || scale.equalsIgnoreCase("Kelvin")) {
+            celsius = false;
+        } else {
+            throw new BadRequestException("Unknown scale.");
+        }
 
         final LatLonPoint topLeft = new LatLonPointImpl(startLat, startLon);
         final LatLonPoint bottomRight = new LatLonPointImpl(endLat, endLon);
         final AreaBounds bounds = new AreaBounds(topLeft, bottomRight, depth, dt);
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(bounds), FeatureServer.maxAgeArea,
+                "temperature", startLat, startLon, endLat, endLon, depth,
+                dt.withZone(DateTimeZone.UTC), celsius ? "C" : "K");
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
 
-        final double[][] areaData;
+        final FeatureGrid kelvinData;
 
         try {
-            areaData = netCdfManager.getScalarArea(bounds, Feature.TEMPERATURE);
+            kelvinData = netCdfManager.getScalarArea(bounds, Feature.TEMPERATURE);
         } catch (final IOException e) {
             throw new InternalServerException("Could not read data file.", e);
         } catch (final InvalidRangeException e) {
             throw new BadRequestException("Invalid ranges provided.", e);
         }
 
-        if (scale.equalsIgnoreCase("C") || scale.equalsIgnoreCase("Celsius")) {
-            final int height = areaData.length;
-            final int width = areaData[0].length;
-            for (int i = 0; i < height ; i++) {
-                for (int j = 0; j < width; j++) {
-                    areaData[i][j] = areaData[i][j] - KELVIN_TO_CELSIUS;
-                }
-            }
-        } else if (!scale.equalsIgnoreCase("K") && !scale.equalsIgnoreCase("Kelvin")) {
-            throw new BadRequestException("Unknown scale.");
-        }
-
+        final FeatureGrid areaData = celsius
+                ? kelvinData.offsetValues((float) -KELVIN_TO_CELSIUS)
+                : kelvinData;
         // @TODO(Arve) Image size
         final BufferedImage image = ImageRenderer.render(areaData, Feature.TEMPERATURE, false);
-        final ByteArrayOutputStream baos = new ByteArrayOutputStream();
-        ImageIO.write(image, "png", baos);
-        final byte[] imageData = baos.toByteArray();
-        return Response.ok(imageData).type("image/png").build();
+        return cacheHeaders.apply(Response.ok(RsUtil.toPng(image)))
+                .type("image/png")
+                .header(RsUtil.STRIDE_HEADER, RsUtil.strideToHeader(areaData))
+                .build();
     }
     @GET
     @Path("profile")
@@ -138,7 +149,8 @@ public class TemperatureResource {
     public Response temperatureProfile(
             @QueryParam("lat") final Float latitude,
             @QueryParam("lon") final Float longitude,
-            @QueryParam("time") final String time) throws IOException {
+            @QueryParam("time") final String time,
+            @Context final Request request) throws IOException {
         RsUtil.validateProfileQueryParams(latitude, longitude, time);
         final DateTime dt;
         try {
@@ -147,6 +159,13 @@ public class TemperatureResource {
             throw new BadRequestException("Time format not recognized", e);
         }
         final LatLonPoint location = new LatLonPointImpl(latitude, longitude);
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(location, dt), FeatureServer.maxAgeProfile,
+                "temperature-profile", latitude, longitude, dt.withZone(DateTimeZone.UTC));
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
         final double[] temperatureProfile;
         try {
             temperatureProfile = netCdfManager.readDepthProfile(location, dt, Feature.TEMPERATURE);
@@ -161,6 +180,6 @@ public class TemperatureResource {
                                 .put( "latitude", latitude)
                                 .put("longitude", longitude)
                                 .put("time", time));
-        return Response.ok(json.toString()).build();
+        return cacheHeaders.apply(Response.ok(json.toString())).build();
     }
 }
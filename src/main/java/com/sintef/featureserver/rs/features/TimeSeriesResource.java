@@ -0,0 +1,145 @@
+package com.sintef.featureserver.rs.features;
+
+import com.sintef.featureserver.FeatureServer;
+import com.sintef.featureserver.exception.BadRequestException;
+import com.sintef.featureserver.exception.InternalServerException;
+import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.netcdf.TimeSeries;
+import com.sintef.featureserver.util.CacheHeaders;
+import com.sintef.featureserver.util.RsUtil;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.json.JSONObject;
+import ucar.ma2.InvalidRangeException;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+
+/**
+ * Handles /feature/{feature}/timeseries requests: the values of a scalar feature at one location
+ * over a time range, e.g. weeks of hourly temperatures at a site.
+ *
+ * @author arve
+ */
+@Path("feature/{feature}/timeseries")
+public class TimeSeriesResource {
+
+    private final NetCdfManager netCdfManager;
+
+    public TimeSeriesResource(@Context final NetCdfManager manager) {
+        this.netCdfManager = manager;
+    }
+
+    /**
+     * @param featureName NetCDF variable of a scalar feature, e.g. "temperature".
+     * @param latitude Latitude of the location.
+     * @param longitude Longitude of the location.
+     * @param depth Optional depth in meters. The first layer if not given.
+     * @param from ISO8601 start of the range, inclusive.
+     * @param to ISO8601 end of the range, inclusive.
+     * @return JSON with the time steps in the range and the value at each of them, written to
+     * the response as it is generated.
+     */
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response timeSeries(
+            @PathParam("feature") final String featureName,
+            @QueryParam("lat") final Float latitude,
+            @QueryParam("lon") final Float longitude,
+            @QueryParam("depth") final Float depth,
+            @QueryParam("from") final String from,
+            @QueryParam("to") final String to,
+            @Context final Request request) throws IOException {
+        RsUtil.checkNotNull(
+                "lat", latitude,
+                "lon", longitude,
+                "from", from,
+                "to", to);
+        final Feature feature = RsUtil.scalarFeature(featureName);
+        final DateTime fromTime;
+        final DateTime toTime;
+        try {
+            fromTime = DateTime.parse(from).withZone(DateTimeZone.UTC);
+            toTime = DateTime.parse(to).withZone(DateTimeZone.UTC);
+        } catch (final IllegalArgumentException e) {
+            throw new BadRequestException("Time format not recognized", e);
+        }
+        if (toTime.isBefore(fromTime)) {
+            throw new BadRequestException("The end of the time range is before its start.");
+        }
+
+        final LatLonPoint location = new LatLonPointImpl(latitude, longitude);
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(location, fromTime, toTime),
+                FeatureServer.maxAgeProfile,
+                featureName + "-timeseries", latitude, longitude, depth, fromTime, toTime);
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        final TimeSeries series;
+        try {
+            series = netCdfManager.readTimeSeries(location, depth, fromTime, toTime, feature);
+        } catch (final IOException e) {
+            throw new InternalServerException("Could not read data file.", e);
+        } catch (final InvalidRangeException e) {
+            throw new BadRequestException("No data for location");
+        }
+        final JSONObject header = new JSONObject()
+                .put("feature", featureName)
+                .put("missingValuePlaceholder", "-1")
+                .put("location", new JSONObject()
+                        .put("latitude", latitude)
+                        .put("longitude", longitude)
+                        .put("depth", depth == null ? JSONObject.NULL : depth));
+        return cacheHeaders.apply(Response.ok(toJson(header, series))).build();
+    }
+
+    /**
+     * Writes the header fields followed by "times" and "values" arrays, one element at a time,
+     * so a long series is never held as a JSON tree or a string.
+     */
+    private static StreamingOutput toJson(final JSONObject header, final TimeSeries series) {
+        return output -> {
+            final Writer writer = new BufferedWriter(
+                    new OutputStreamWriter(output, StandardCharsets.UTF_8));
+            final String fields = header.toString();
+            writer.write(fields, 0, fields.length() - 1);
+            writer.write(",\"times\":[");
+            for (int i = 0; i < series.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                writer.write('"');
+                writer.write(series.getTime(i).toString());
+                writer.write('"');
+            }
+            writer.write("],\"values\":[");
+            for (int i = 0; i < series.size(); i++) {
+                if (i > 0) {
+                    writer.write(',');
+                }
+                final float value = series.getValue(i);
+                writer.write(Float.isFinite(value) ? Float.toString(value) : "-1");
+            }
+            writer.write("]}");
+            writer.flush();
+        };
+    }
+}
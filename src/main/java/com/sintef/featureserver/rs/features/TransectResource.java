@@ -0,0 +1,196 @@
+package com.sintef.featureserver.rs.features;
+
+import com.sintef.featureserver.FeatureServer;
+import com.sintef.featureserver.exception.BadRequestException;
+import com.sintef.featureserver.exception.InternalServerException;
+import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.netcdf.Transect;
+import com.sintef.featureserver.util.CacheHeaders;
+import com.sintef.featureserver.util.ImageRenderer;
+import com.sintef.featureserver.util.RsUtil;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.PathParam;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import ucar.ma2.InvalidRangeException;
+import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+
+/**
+ * Handles /feature/{feature}/transect requests: a vertical section of a scalar feature along a
+ * path, e.g. temperatures along the axis of a fjord.
+ *
+ * The section is either rendered as an image, with the surface at the top, or returned as a
+ * binary grid of big-endian 32 bit floats, one row per depth layer from the deepest up and one
+ * column per sample along the path. Missing values are NaN. The headers describe the grid.
+ *
+ * @author arve
+ */
+@Path("feature/{feature}/transect")
+public class TransectResource {
+
+    /**
+     * Distance in meters between neighbouring columns of the section.
+     */
+    public static final String SPACING_HEADER = "X-Sample-Spacing";
+    /**
+     * Comma separated depth in meters of every row of the section, in row order.
+     */
+    public static final String DEPTHS_HEADER = "X-Depths";
+    /**
+     * Number of columns and rows of a binary section, e.g. "512,20".
+     */
+    public static final String SHAPE_HEADER = "X-Grid-Shape";
+
+    private final NetCdfManager netCdfManager;
+
+    public TransectResource(@Context final NetCdfManager manager) {
+        this.netCdfManager = manager;
+    }
+
+    /**
+     * @param featureName NetCDF variable of a scalar feature, e.g. "salinity".
+     * @param points Points of the path as "lat,lon", in order. At least two.
+     * @param time ISO8601 time of the section.
+     * @param format "png" for an image, "binary" for the grid.
+     * @param width Width of the image in pixels.
+     * @param height Height of the image in pixels.
+     */
+    @GET
+    public Response transect(
+            @PathParam("feature") final String featureName,
+            @QueryParam("point") final List<String> points,
+            @QueryParam("time") final String time,
+            @QueryParam("format") @DefaultValue("png") final String format,
+            @QueryParam("width") @DefaultValue("512") final int width,
+            @QueryParam("height") @DefaultValue("256") final int height,
+            @Context final Request request) throws IOException {
+        RsUtil.checkNotNull("time", time);
+        final Feature feature = RsUtil.scalarFeature(featureName);
+        final List<LatLonPoint> path = parsePath(points);
+        final boolean png;
+        if (format.equalsIgnoreCase("png")) {
+            png = true;
+        } else if (format.equalsIgnoreCase("binary")) {
+            png = false;
+        } else {
+            throw new BadRequestException("Unknown format, expected png or binary.");
+        }
+        if (width < 1 || height < 1 || width > 4096 || height > 4096) {
+            throw new BadRequestException("The image must be between 1 and 4096 pixels.");
+        }
+        final DateTime dt;
+        try {
+            dt = DateTime.parse(time);
+        } catch (final IllegalArgumentException e) {
+            throw new BadRequestException("Time format not recognized", e);
+        }
+
+        final CacheHeaders cacheHeaders = CacheHeaders.forFiles(
+                netCdfManager.getSourceFiles(path, dt), FeatureServer.maxAgeProfile,
+                featureName + "-transect", points, dt.withZone(DateTimeZone.UTC),
+                png ? "png" : "binary", width, height);
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
+
+        final Transect transect;
+        try {
+            transect = netCdfManager.readTransect(path, dt, feature);
+        } catch (final IOException e) {
+            throw new InternalServerException("Could not read data file.", e);
+        } catch (final InvalidRangeException e) {
+            throw new BadRequestException("Invalid ranges provided.", e);
+        }
+
+        final FeatureGrid grid = transect.getGrid();
+        final Response.ResponseBuilder response;
+        if (png) {
+            // Rendered in Celsius, like the temperature area resource.
+            final FeatureGrid rendered = feature == Feature.TEMPERATURE
+                    ? grid.offsetValues((float) -TemperatureResource.KELVIN_TO_CELSIUS)
+                    : grid;
+            response = Response.ok(RsUtil.toPng(
+                    ImageRenderer.render(rendered, feature, width, height))).type("image/png");
+        } else {
+            response = Response.ok(toBinary(grid))
+                    .type(MediaType.APPLICATION_OCTET_STREAM_TYPE)
+                    .header(SHAPE_HEADER, grid.getWidth() + "," + grid.getHeight());
+        }
+        return cacheHeaders.apply(response)
+                .header(SPACING_HEADER, transect.getSpacing())
+                .header(DEPTHS_HEADER, depthsToHeader(transect.getDepths()))
+                .build();
+    }
+
+    /**
+     * @return the points of "lat,lon" strings.
+     * @throws BadRequestException if there are less than two, or one is not a valid point.
+     */
+    private static List<LatLonPoint> parsePath(final List<String> points) {
+        if (points == null || points.size() < 2) {
+            throw new BadRequestException("A transect needs at least two point parameters.");
+        }
+        final List<LatLonPoint> path = new ArrayList<>(points.size());
+        for (final String point : points) {
+            final String[] latLon = point.split(",");
+            try {
+                if (latLon.length != 2) {
+                    throw new NumberFormatException();
+                }
+                final double lat = Double.parseDouble(latLon[0].trim());
+                final double lon = Double.parseDouble(latLon[1].trim());
+                if (Math.abs(lat) > 90 || Math.abs(lon) > 180) {
+                    throw new NumberFormatException();
+                }
+                path.add(new LatLonPointImpl(lat, lon));
+            } catch (final NumberFormatException e) {
+                throw new BadRequestException("Expected a point as lat,lon, got " + point, e);
+            }
+        }
+        return path;
+    }
+
+    private static String depthsToHeader(final double[] depths) {
+        final StringBuilder header = new StringBuilder();
+        for (final double depth : depths) {
+            if (header.length() > 0) {
+                header.append(',');
+            }
+            header.append(depth);
+        }
+        return header.toString();
+    }
+
+    /**
+     * @return the grid as big-endian floats, row by row.
+     */
+    private static StreamingOutput toBinary(final FeatureGrid grid) {
+        return output -> {
+            final DataOutputStream data
+                    = new DataOutputStream(new BufferedOutputStream(output));
+            for (int row = 0; row < grid.getHeight(); row++) {
+                for (int column = 0; column < grid.getWidth(); column++) {
+                    data.writeFloat(grid.get(row, column));
+                }
+            }
+            data.flush();
+        };
+    }
+}
@@ -1,16 +1,53 @@
 package com.sintef.featureserver.rs.healthcheck;
 
+import com.sintef.featureserver.WebServer;
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.wmts.TileService;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import org.json.JSONObject;
 
 
 @Path("health")
 public class HealthCheckResource {
+    private final NetCdfManager netCdfManager;
+    private final TileService tileService;
+    private final WebServer webServer;
+
+    public HealthCheckResource(
+            @Context final NetCdfManager netCdfManager,
+            @Context final TileService tileService,
+            @Context final WebServer webServer) {
+        this.netCdfManager = netCdfManager;
+        this.tileService = tileService;
+        this.webServer = webServer;
+    }
+
     @Path("shallow")
     @GET
     public Response shallowHealthCheck() {
         return Response.ok("Shallow health check ok", MediaType.TEXT_PLAIN_TYPE).build();
     }
+
+    /**
+     * Counters and gauges for the internal pools and caches.
+     */
+    @Path("stats")
+    @GET
+    @Produces(MediaType.APPLICATION_JSON)
+    public Response stats() {
+        final JSONObject json = new JSONObject()
+                .put("catalog", netCdfManager.getFileCatalog().getStatistics())
+                .put("datasets", netCdfManager.getDatasetRegistry().getStatistics())
+                .put("sliceCache", netCdfManager.getSliceCache().getStatistics())
+                .put("tileCache", tileService.getTileCache().getStatistics())
+                .put("coalescing", netCdfManager.getCoalescingStatistics()
+                        .put("metatileRenders", tileService.getCoalescingStatistics()))
+                .put("http", webServer.getStatistics());
+        return Response.ok(json.toString()).build();
+    }
 }
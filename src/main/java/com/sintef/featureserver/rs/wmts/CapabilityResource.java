@@ -1,23 +1,15 @@
 package com.sintef.featureserver.rs.wmts;
 
-import com.sintef.featureserver.netcdf.NetCdfManager;
-import com.sintef.featureserver.util.VelocityUtil;
-import com.sintef.featureserver.wmts.GoogleMapsCompatibleTileMatrixSet;
-import com.sintef.featureserver.wmts.TileMatrix;
+import com.sintef.featureserver.util.CacheHeaders;
+import com.sintef.featureserver.wmts.CapabilitiesDocument;
 import java.io.IOException;
-import java.net.URI;
 import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import javax.ws.rs.core.UriBuilder;
 import javax.ws.rs.core.UriInfo;
-import org.apache.velocity.Template;
-import org.apache.velocity.VelocityContext;
-import org.apache.velocity.app.VelocityEngine;
-import ucar.unidata.geoloc.LatLonPoint;
-import ucar.unidata.geoloc.LatLonRect;
 
 /**
  * Serves the Capabilities document as prescribed by the WMTS spec.
@@ -28,46 +20,26 @@ import ucar.unidata.geoloc.LatLonRect;
 
 @Path("WMTS/1.0.0/WMTSCapabilities.xml")
 public class CapabilityResource {
-    private final NetCdfManager netCdfManager;
-    private final VelocityEngine velocityEngine;
+    private final CapabilitiesDocument capabilitiesDocument;
     private final UriInfo uriInfo;
 
     public CapabilityResource(
-            @Context final NetCdfManager netCdfManager,
-            @Context final UriInfo uriInfo,
-            @Context final VelocityEngine velocityEngine) {
-        this.netCdfManager = netCdfManager;
-        this.velocityEngine = velocityEngine;
+            @Context final CapabilitiesDocument capabilitiesDocument,
+            @Context final UriInfo uriInfo) {
+        this.capabilitiesDocument = capabilitiesDocument;
         this.uriInfo = uriInfo;
-
     }
 
     @GET
     @Produces("text/xml")
-    public Response getCapabilities() throws IOException {
-
-
-        final Template xmlTemplate
-                = VelocityUtil.loadTemplate(velocityEngine, "capabilities.xml");
-        final VelocityContext context = new VelocityContext();
-
-        final URI wmtsBaseUrl = UriBuilder.
-                fromUri(uriInfo.getBaseUri())
-                .path("WMTS")
-                .build();
-        final LatLonRect boundingBox = netCdfManager.getBoundingBox();
-        final LatLonPoint upperLeft = boundingBox.getUpperLeftPoint();
-        final LatLonPoint lowerRight = boundingBox.getLowerRightPoint();
-        final GoogleMapsCompatibleTileMatrixSet tileMatrixSet
-                = new GoogleMapsCompatibleTileMatrixSet(
-                    netCdfManager.getResolution(),
-                    netCdfManager.getBoundingBox());
-
-        context.put("WmtsBaseUrl", wmtsBaseUrl);
-        context.put("upperLeftPoint", upperLeft);
-        context.put("lowerRightPoint", lowerRight);
-        context.put("tileMatrixSet", tileMatrixSet);
-        final String xmlString = VelocityUtil.renderTemplate(xmlTemplate, context);
-        return Response.ok(xmlString).build();
+    public Response getCapabilities(@Context final Request request) throws IOException {
+        final CapabilitiesDocument.Rendered document
+                = capabilitiesDocument.get(uriInfo.getBaseUri());
+        final CacheHeaders cacheHeaders = document.getCacheHeaders();
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
+        return cacheHeaders.apply(Response.ok(document.getXml())).build();
     }
 }
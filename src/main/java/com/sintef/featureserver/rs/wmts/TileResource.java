@@ -1,50 +1,90 @@
 package com.sintef.featureserver.rs.wmts;
 
-import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.FeatureServer;
+import com.sintef.featureserver.exception.BadRequestException;
+import com.sintef.featureserver.exception.InternalServerException;
+import com.sintef.featureserver.util.CacheHeaders;
 import com.sintef.featureserver.wmts.GoogleMapsCompatibleTileMatrixSet;
-import com.sintef.featureserver.wmts.TileMatrix;
+import com.sintef.featureserver.wmts.Layer;
+import com.sintef.featureserver.wmts.TileService;
 import java.io.IOException;
+import javax.ws.rs.GET;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.Request;
 import javax.ws.rs.core.Response;
-import ucar.unidata.geoloc.LatLonRect;
+import org.joda.time.DateTime;
+import ucar.ma2.InvalidRangeException;
 
 /**
- * Serves tiles through the WMTS protocol
+ * Serves tiles through the WMTS protocol, using the RESTful encoding with Time and depth
+ * (Elevation) as dimensions.
  *
  * @author arve
  */
 
-@Path("$wmtsBaseUrl/tile/1.0.0/{TileMatrixSet}/{TileMatrix}/{TileRow}/{TileCol}.png")
+@Path("WMTS/tile/1.0.0/{Layer}/{Time}/{Elevation}/{TileMatrixSet}/{TileMatrix}/{TileRow}/{TileCol}.png")
 @Produces("image/png")
 public class TileResource {
-    private final NetCdfManager netCdfManager;
-
-    public TileResource(@Context final NetCdfManager netCdfManager) throws IOException {
-        this.netCdfManager = netCdfManager;
-        final GoogleMapsCompatibleTileMatrixSet tileMatrixSet
-                = new GoogleMapsCompatibleTileMatrixSet(
-                netCdfManager.getResolution(),
-                netCdfManager.getBoundingBox());
+    private final TileService tileService;
 
+    public TileResource(@Context final TileService tileService) {
+        this.tileService = tileService;
     }
 
+    /**
+     * @param layerId Layer identifier, e.g. "temperature".
+     * @param time Time of the data, ISO 8601.
+     * @param depth Depth in meters.
+     * @param tileMatrixSet Must be GoogleMapsCompatible.
+     * @param zoomLevel TileMatrix identifier.
+     * @param tileRow Row, 0 at the north edge.
+     * @param tileCol Column, 0 at 180W.
+     * @return PNG tile.
+     * @throws BadRequestException if any parameter is invalid or the tile is out of range.
+     */
+    @GET
     public Response getTile(
-            @PathParam("TileMatrixSet") final String variable,
+            @PathParam("Layer") final String layerId,
+            @PathParam("Time") final String time,
+            @PathParam("Elevation") final float depth,
+            @PathParam("TileMatrixSet") final String tileMatrixSet,
             @PathParam("TileMatrix") final int zoomLevel,
             @PathParam("TileRow") final int tileRow,
-            @PathParam("TileMatrix") final int TileCol) throws IOException {
+            @PathParam("TileCol") final int tileCol,
+            @Context final Request request) throws IOException {
 
-        final double resolution = netCdfManager.getResolution();
-        final LatLonRect bbox = netCdfManager.getBoundingBox();
-        final GoogleMapsCompatibleTileMatrixSet tileMatrixSet
-                = new GoogleMapsCompatibleTileMatrixSet(resolution, bbox);
-        final TileMatrix tileMatrix = tileMatrixSet.getTileMatrices().get(zoomLevel);
+        final Layer layer = Layer.fromIdentifier(layerId);
+        if (layer == null) {
+            throw new BadRequestException("Unknown layer: " + layerId);
+        }
+        if (!GoogleMapsCompatibleTileMatrixSet.ID.equals(tileMatrixSet)) {
+            throw new BadRequestException("Unknown TileMatrixSet: " + tileMatrixSet);
+        }
+        final DateTime dt;
+        try {
+            dt = DateTime.parse(time);
+        } catch (final IllegalArgumentException e) {
+            throw new BadRequestException("Time format not recognized", e);
+        }
 
+        final CacheHeaders cacheHeaders = tileService.getCacheHeaders(
+                layer, dt, depth, zoomLevel, tileRow, tileCol, FeatureServer.maxAgeTile);
+        final Response notModified = cacheHeaders.evaluate(request);
+        if (notModified != null) {
+            return notModified;
+        }
 
-        return Response.ok().build();
+        final byte[] tile;
+        try {
+            tile = tileService.getTile(layer, dt, depth, zoomLevel, tileRow, tileCol);
+        } catch (final IOException e) {
+            throw new InternalServerException("Could not read data file.", e);
+        } catch (final InvalidRangeException e) {
+            throw new BadRequestException("Invalid ranges provided.", e);
+        }
+        return cacheHeaders.apply(Response.ok(tile)).type("image/png").build();
     }
-
 }
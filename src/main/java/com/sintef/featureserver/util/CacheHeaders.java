@@ -0,0 +1,129 @@
+package com.sintef.featureserver.util;
+
+import com.sintef.featureserver.netcdf.CatalogEntry;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Date;
+import java.util.List;
+import javax.ws.rs.core.CacheControl;
+import javax.ws.rs.core.EntityTag;
+import javax.ws.rs.core.Request;
+import javax.ws.rs.core.Response;
+
+/**
+ * HTTP validators and cache policy of a response computed from data files.
+ *
+ * The strong ETag is a hash of the identity (path, modification time and size) of the source
+ * files and the normalized request parameters, so it can be checked before any data is read.
+ * Last-Modified is the modification time of the newest source file. Both come from the
+ * {@link CatalogEntry} of the files, so the file system is not touched.
+ */
+public final class CacheHeaders {
+    private final EntityTag entityTag;
+    private final Date lastModified;
+    private final CacheControl cacheControl;
+
+    private CacheHeaders(final String identity, final long lastModified, final int maxAgeSeconds) {
+        this.entityTag = new EntityTag(sha1(identity));
+        // HTTP dates have a resolution of one second.
+        this.lastModified = new Date(lastModified / 1000 * 1000);
+        this.cacheControl = new CacheControl();
+        cacheControl.setNoTransform(false);
+        if (maxAgeSeconds > 0) {
+            cacheControl.setMaxAge(maxAgeSeconds);
+        } else {
+            cacheControl.setNoCache(true);
+        }
+    }
+
+    /**
+     * @param sources Files the response is computed from.
+     * @param maxAgeSeconds How long clients and proxies may reuse the response. 0 makes them
+     * revalidate every time.
+     * @param parameters Request parameters, normalized so that equivalent requests are equal.
+     */
+    public static CacheHeaders forFiles(
+            final List<CatalogEntry> sources,
+            final int maxAgeSeconds,
+            final Object... parameters) {
+        final StringBuilder identity = new StringBuilder();
+        long newest = 0;
+        for (final CatalogEntry source : sources) {
+            appendIdentity(identity, source);
+            newest = Math.max(newest, source.getModified());
+        }
+        for (final Object parameter : parameters) {
+            identity.append(parameter).append('|');
+        }
+        return new CacheHeaders(identity.toString(), newest, maxAgeSeconds);
+    }
+
+    /**
+     * @return a short hash of the identity of the files, which changes when any of them does.
+     * Usable as a file name.
+     */
+    public static String version(final List<CatalogEntry> sources) {
+        final StringBuilder identity = new StringBuilder();
+        for (final CatalogEntry source : sources) {
+            appendIdentity(identity, source);
+        }
+        return sha1(identity.toString()).substring(0, 16);
+    }
+
+    private static void appendIdentity(final StringBuilder identity, final CatalogEntry source) {
+        identity.append(source.getFilepath())
+                .append('|').append(source.getModified())
+                .append('|').append(source.getSize())
+                .append('|');
+    }
+
+    /**
+     * @param key Key that already identifies the content, including the source version.
+     * @param lastModified Modification time of the source, in millis.
+     * @param maxAgeSeconds How long clients and proxies may reuse the response.
+     */
+    public static CacheHeaders forKey(
+            final String key,
+            final long lastModified,
+            final int maxAgeSeconds) {
+        return new CacheHeaders(key, lastModified, maxAgeSeconds);
+    }
+
+    public EntityTag getEntityTag() { return entityTag; }
+
+    /**
+     * @return a 304 Not Modified (or 412) response if the request preconditions say the client
+     * has this version already, null if the response should be computed.
+     */
+    public Response evaluate(final Request request) {
+        final Response.ResponseBuilder builder
+                = request.evaluatePreconditions(lastModified, entityTag);
+        return builder == null ? null : apply(builder).build();
+    }
+
+    /**
+     * Adds ETag, Last-Modified and Cache-Control to a response.
+     */
+    public Response.ResponseBuilder apply(final Response.ResponseBuilder builder) {
+        return builder
+                .tag(entityTag)
+                .lastModified(lastModified)
+                .cacheControl(cacheControl);
+    }
+
+    private static String sha1(final String value) {
+        try {
+            final byte[] digest = MessageDigest.getInstance("SHA-1")
+                    .digest(value.getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (final byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16))
+                        .append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (final NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is always available", e);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.sintef.featureserver.util;
+
+import com.sintef.featureserver.netcdf.Feature;
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * Precomputed color lookup table for a feature: a linear ramp between two colors over a value
+ * range, stored as packed ARGB ints.
+ *
+ * The ramp has {@link #STEPS} entries. Two 8-bit colors can not differ in more than 256 steps,
+ * so a longer table would only repeat colors, and staying within 256 colors keeps the images
+ * palette encodable.
+ */
+public final class ColorScale {
+    public static final int STEPS = 255;
+    // Land and other cells without data.
+    public static final int TRANSPARENT = 0x00000000;
+
+    private static final Map<Feature, ColorScale> SCALES = new EnumMap<>(Feature.class);
+    static {
+        for (final Feature feature : Feature.values()) {
+            SCALES.put(feature, create(feature));
+        }
+    }
+
+    private final float minValue;
+    // Table index per unit of value.
+    private final float indexScale;
+    private final int[] lut;
+
+    private ColorScale(
+            final double minValue,
+            final double maxValue,
+            final int minColor,
+            final int maxColor) {
+        this.minValue = (float) minValue;
+        this.indexScale = maxValue > minValue ? (float) ((STEPS - 1) / (maxValue - minValue)) : 0f;
+        this.lut = new int[STEPS];
+        for (int i = 0; i < STEPS; i++) {
+            lut[i] = lerp(minColor, maxColor, (double) i / (STEPS - 1));
+        }
+    }
+
+    public static ColorScale forFeature(final Feature feature) {
+        return SCALES.get(feature);
+    }
+
+    private static ColorScale create(final Feature feature) {
+        switch (feature) {
+            case SALINITY:
+                return new ColorScale(26, 36, 0xffffffff, 0xff0048ff);
+            case TEMPERATURE:
+                return new ColorScale(0, 20, 0xff0048ff, 0xffff2321);
+            case CURRENT_MAGNITUDE:
+                return new ColorScale(0, 1, 0xff0048ff, 0xffff2321);
+            case WIND_MAGNITUDE:
+                return new ColorScale(0, 20, 0xff0048ff, 0xffff2321);
+            case DEPTH:
+                return new ColorScale(0, 1000, 0xffffffff, 0xff0048ff);
+            default:
+                // No scale defined: everything gets the min color.
+                return new ColorScale(0, 0, 0xffffffff, 0xff000000);
+        }
+    }
+
+    /**
+     * @return packed ARGB color of a value. Values outside the range get the end colors.
+     */
+    public int colorOf(final float value) {
+        final int index = (int) ((value - minValue) * indexScale + 0.5f);
+        if (index <= 0) {
+            return lut[0];
+        }
+        return index >= STEPS ? lut[STEPS - 1] : lut[index];
+    }
+
+    private static int lerp(final int from, final int to, final double fraction) {
+        int result = 0;
+        for (int shift = 0; shift < 32; shift += 8) {
+            final int a = (from >>> shift) & 0xff;
+            final int b = (to >>> shift) & 0xff;
+            result |= ((int) ((1.0 - fraction) * a + fraction * b + 0.5)) << shift;
+        }
+        return result;
+    }
+}
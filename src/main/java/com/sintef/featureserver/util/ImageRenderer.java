@@ -1,121 +1,130 @@
 package com.sintef.featureserver.util;
 
+import com.sintef.featureserver.FeatureServer;
 import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 
-import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
 public class ImageRenderer {
 
     public ImageRenderer(){} // Should not be instantiated.
 
     //The height or width of the resulting image (whichever dimension is the smallest) will be this big
-    final static int goalSize = 256;
-
-    public static BufferedImage render(final double[][] rawData, Feature feature, boolean forceSquare) {
-
-        final int dataWidth = rawData[0].length;
-        final int dataHeight = rawData.length;
-
-        double minValue = 32767;
-        double maxValue = -32768;
-        Color minColor = new Color(0xffffff);
-        Color maxColor = new Color(0x000000);
-
-        switch (feature){
-            case SALINITY:
-                minValue = 26;
-                maxValue = 36;
-                minColor = new Color(0xffffff);
-                maxColor = new Color(0x0048ff);
-                break;
-            case TEMPERATURE:
-                minValue = 0;
-                maxValue = 20;
-                minColor = new Color(0x0048ff);
-                maxColor = new Color(0xff2321);
-                break;
-            case CURRENT_MAGNITUDE:
-                minValue = 0;
-                maxValue = 1;
-                minColor = new Color(0x0048ff);
-                maxColor = new Color(0xff2321);
-                break;
-            case CURRENT_DIRECTION:
-                break;
-            case DEPTH:
-                minValue = 0;
-                maxValue = 1000;
-                minColor = new Color(0xffffff);
-                maxColor = new Color(0x0048ff);
-                break;
-        }
+    public final static int GOAL_SIZE = 256;
+
+    // Bands smaller than this are not worth a task.
+    private static final int MIN_BAND_ROWS = 32;
+
+    // Shared by all requests. The per request band count is capped by --render-parallelism, so
+    // one large image can not take every thread from tile traffic.
+    private static final ForkJoinPool RENDER_POOL
+            = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
 
-        final double aspectRatio = (double)dataWidth/dataHeight;
+    public static BufferedImage render(final FeatureGrid rawData, Feature feature, boolean forceSquare) {
+
+        final double aspectRatio = (double)rawData.getWidth()/rawData.getHeight();
         final int imageWidth;
         final int imageHeight;
         if (aspectRatio == 1.0 || forceSquare) {
-            imageWidth = goalSize;
-            imageHeight = goalSize;
+            imageWidth = GOAL_SIZE;
+            imageHeight = GOAL_SIZE;
         } else if (aspectRatio < 1.0) {
-            imageWidth = goalSize;
-            imageHeight = (int)(goalSize / aspectRatio);
+            imageWidth = GOAL_SIZE;
+            imageHeight = (int)(GOAL_SIZE / aspectRatio);
         } else {
-            imageWidth = (int)(goalSize * aspectRatio);
-            imageHeight = goalSize;
+            imageWidth = (int)(GOAL_SIZE * aspectRatio);
+            imageHeight = GOAL_SIZE;
         }
+        return render(rawData, feature, imageWidth, imageHeight);
+    }
+
+    /**
+     * Renders a grid stretched to the given image size.
+     */
+    public static BufferedImage render(
+            final FeatureGrid rawData,
+            final Feature feature,
+            final int imageWidth,
+            final int imageHeight) {
+        final int dataWidth = rawData.getWidth();
+        final int dataHeight = rawData.getHeight();
+        final ColorScale colorScale = ColorScale.forFeature(feature);
 
         final double xScale = (double)imageWidth / dataWidth;
         final double yScale = (double)imageHeight / dataHeight;
 
         final BufferedImage image = new BufferedImage(imageWidth, imageHeight, BufferedImage.TYPE_INT_ARGB);
+        final int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
 
-        for (int y = 0; y < imageHeight; y++) {
-            for (int x = 0; x < imageWidth; x++) {
-                final int dataX = (int)((imageHeight-1 - y)/yScale);
-                final int dataY = (int)(x/xScale);
-                final double value = rawData[dataX][dataY];
-
-                if (Double.isNaN(value)) {
-                    image.setRGB(x, y, 0x00000000);         // coloring all landspots to transparent
-                } else {
-
-                    final double fraction = normalize(minValue, maxValue, value);
-                    final int r = lerp(minColor.getRed(),   maxColor.getRed(),   fraction);
-                    final int g = lerp(minColor.getGreen(), maxColor.getGreen(), fraction);
-                    final int b = lerp(minColor.getBlue(),  maxColor.getBlue(),  fraction);
-                    final int a = lerp(minColor.getAlpha(), maxColor.getAlpha(), fraction);
-
-                    final Color color = new Color(r,g,b,a);
-                    image.setRGB(x, y, color.getRGB());
-                }
-            }
+        // Data column of every image column, the same for every row.
+        final int[] dataColumns = new int[imageWidth];
+        for (int x = 0; x < imageWidth; x++) {
+            dataColumns[x] = (int)(x/xScale);
+        }
+
+        final int bands = bandCount(imageWidth, imageHeight);
+        if (bands <= 1) {
+            renderRows(rawData, colorScale, pixels, dataColumns, yScale, imageHeight, 0, imageHeight);
+            return image;
+        }
+
+        // Split into row bands. The request thread renders the first band itself, the rest go to
+        // the shared pool.
+        final List<ForkJoinTask<?>> tasks = new ArrayList<>(bands - 1);
+        for (int band = 1; band < bands; band++) {
+            final int firstRow = band * imageHeight / bands;
+            final int endRow = (band + 1) * imageHeight / bands;
+            tasks.add(RENDER_POOL.submit(() -> renderRows(rawData, colorScale, pixels,
+                    dataColumns, yScale, imageHeight, firstRow, endRow)));
+        }
+        renderRows(rawData, colorScale, pixels, dataColumns, yScale, imageHeight,
+                0, imageHeight / bands);
+        for (final ForkJoinTask<?> task : tasks) {
+            task.join();
         }
         return image;
     }
 
-    // returns 0.0 if value is min, 1.0 if value is max.
-    // interpolates and extrapolates for other values
-    private static double normalize(final double min, final double max, final double value) {
-        final double divisor = max - min;
-        if (divisor <= 0.0) {
-            System.out.println("invalid min and max!");
-            return 0.0f;
+    /**
+     * @return number of row bands to render an image in, 1 for single threaded.
+     */
+    private static int bandCount(final int imageWidth, final int imageHeight) {
+        if ((long) imageWidth * imageHeight < FeatureServer.parallelRenderPixels) {
+            return 1;
         }
-        return (value - min) / divisor;
+        final int threads = Math.min(FeatureServer.renderParallelism, RENDER_POOL.getParallelism());
+        return Math.max(1, Math.min(threads, imageHeight / MIN_BAND_ROWS));
     }
 
-    // fraction gets clamped to [0, 1]
-    private static int lerp(final int i1, final int i2, double fraction){
-        if (fraction > 1.0) {
-            fraction = 1.0;
-        } else if (fraction < 0.0) {
-            fraction = 0.0;
+    /**
+     * Renders image rows [firstRow, endRow). Image rows run north to south, data rows south to
+     * north. Each image row reads along a single data row.
+     */
+    private static void renderRows(
+            final FeatureGrid rawData,
+            final ColorScale colorScale,
+            final int[] pixels,
+            final int[] dataColumns,
+            final double yScale,
+            final int imageHeight,
+            final int firstRow,
+            final int endRow) {
+        final int imageWidth = dataColumns.length;
+        for (int y = firstRow; y < endRow; y++) {
+            final int dataRow = (int)((imageHeight-1 - y)/yScale);
+            int pixel = y * imageWidth;
+            for (int x = 0; x < imageWidth; x++) {
+                final float value = rawData.get(dataRow, dataColumns[x]);
+                pixels[pixel++] = rawData.isMissing(value)
+                        ? ColorScale.TRANSPARENT    // coloring all landspots to transparent
+                        : colorScale.colorOf(value);
+            }
         }
-
-        return (int)((1.0 - fraction)*i1 + fraction*i2 + 0.5);
     }
 }
-
-
-
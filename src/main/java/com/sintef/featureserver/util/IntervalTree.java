@@ -0,0 +1,100 @@
+package com.sintef.featureserver.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.ToLongFunction;
+
+/**
+ * Immutable interval tree, for finding the intervals that overlap a point or a range.
+ *
+ * The intervals are sorted by start and form an implicit balanced binary search tree: the
+ * middle of each range of the array is the root of its subtree. Every node also keeps the
+ * largest end in its subtree, so subtrees that end before the query are skipped. A query costs
+ * O(log n + k) for k results. Intervals are closed.
+ *
+ * @param <T> Item type.
+ */
+public final class IntervalTree<T> {
+    private final Object[] items;
+    private final long[] starts;
+    private final long[] ends;
+    // Largest end in the subtree rooted at each index.
+    private final long[] maxEnds;
+
+    /**
+     * @param items Items to index.
+     * @param start Start of the interval of an item. Only called while building.
+     * @param end End of the interval of an item, not before its start.
+     */
+    public IntervalTree(
+            final Collection<T> items,
+            final ToLongFunction<T> start,
+            final ToLongFunction<T> end) {
+        final List<T> sorted = new ArrayList<>(items);
+        sorted.sort(Comparator.comparingLong(start));
+        final int n = sorted.size();
+        this.items = sorted.toArray();
+        this.starts = new long[n];
+        this.ends = new long[n];
+        this.maxEnds = new long[n];
+        for (int i = 0; i < n; i++) {
+            starts[i] = start.applyAsLong(sorted.get(i));
+            ends[i] = end.applyAsLong(sorted.get(i));
+        }
+        computeMaxEnds(0, n - 1);
+    }
+
+    public int size() { return items.length; }
+
+    /**
+     * @return the items whose interval contains the point, ordered by start.
+     */
+    public List<T> query(final long point) {
+        return query(point, point);
+    }
+
+    /**
+     * @return the items whose interval overlaps [from, to], ordered by start.
+     */
+    public List<T> query(final long from, final long to) {
+        final List<T> result = new ArrayList<>();
+        query(0, items.length - 1, from, to, result);
+        return result;
+    }
+
+    private long computeMaxEnds(final int low, final int high) {
+        if (low > high) {
+            return Long.MIN_VALUE;
+        }
+        final int middle = (low + high) >>> 1;
+        maxEnds[middle] = Math.max(ends[middle], Math.max(
+                computeMaxEnds(low, middle - 1), computeMaxEnds(middle + 1, high)));
+        return maxEnds[middle];
+    }
+
+    @SuppressWarnings("unchecked")
+    private void query(
+            final int low,
+            final int high,
+            final long from,
+            final long to,
+            final List<T> result) {
+        if (low > high) {
+            return;
+        }
+        final int middle = (low + high) >>> 1;
+        if (maxEnds[middle] < from) {
+            return; // Everything in this subtree ends before the range.
+        }
+        query(low, middle - 1, from, to, result);
+        if (starts[middle] > to) {
+            return; // This and everything to the right starts after the range.
+        }
+        if (ends[middle] >= from) {
+            result.add((T) items[middle]);
+        }
+        query(middle + 1, high, from, to, result);
+    }
+}
@@ -0,0 +1,376 @@
+package com.sintef.featureserver.util;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Minimal PNG encoder for the rendered images.
+ *
+ * Images with at most 256 distinct colors, which is every image made from a {@link ColorScale},
+ * are written as 8-bit indexed PNG with a tRNS chunk for the transparent land. Other images fall
+ * back to 8-bit RGBA. Image data is written in IDAT chunks as it is compressed, so the encoder
+ * can write straight to a response stream.
+ */
+public class PngEncoder {
+    private static final byte[] SIGNATURE
+            = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+    private static final int COLOR_TYPE_INDEXED = 3;
+    private static final int COLOR_TYPE_RGBA = 6;
+    private static final int MAX_PALETTE_SIZE = 256;
+    // Max size of each IDAT chunk.
+    private static final int CHUNK_SIZE = 32 * 1024;
+
+    /**
+     * Row filter, see the PNG specification. NONE is usually best for indexed images.
+     */
+    public enum Filter {
+        NONE,
+        SUB,
+        UP,
+        AVERAGE,
+        PAETH,
+        // Picks the filter with the smallest sum of absolute differences per row.
+        ADAPTIVE
+    }
+
+    private final int deflateLevel;
+    private final Filter filter;
+
+    /**
+     * @param deflateLevel 0 (store) to 9 (smallest).
+     * @param filter Row filter to use.
+     */
+    public PngEncoder(final int deflateLevel, final Filter filter) {
+        if (deflateLevel < Deflater.NO_COMPRESSION || deflateLevel > Deflater.BEST_COMPRESSION) {
+            throw new IllegalArgumentException("Deflate level must be 0-9, got " + deflateLevel);
+        }
+        this.deflateLevel = deflateLevel;
+        this.filter = filter;
+    }
+
+    public void write(final BufferedImage image, final OutputStream output) throws IOException {
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final int[] pixels = argbPixels(image);
+        final Palette palette = Palette.of(pixels);
+
+        final DataOutputStream out = new DataOutputStream(output);
+        out.write(SIGNATURE);
+
+        final ByteArrayOutputStream headerBytes = new ByteArrayOutputStream();
+        final DataOutputStream header = new DataOutputStream(headerBytes);
+        header.writeInt(width);
+        header.writeInt(height);
+        header.writeByte(8); // Bit depth
+        header.writeByte(palette != null ? COLOR_TYPE_INDEXED : COLOR_TYPE_RGBA);
+        header.writeByte(0); // Compression: deflate
+        header.writeByte(0); // Filter method: adaptive per row
+        header.writeByte(0); // No interlace
+        writeChunk(out, "IHDR", headerBytes.toByteArray());
+
+        if (palette != null) {
+            writeChunk(out, "PLTE", palette.rgb());
+            final byte[] alpha = palette.alpha();
+            if (alpha.length > 0) {
+                writeChunk(out, "tRNS", alpha);
+            }
+        }
+
+        final int bytesPerPixel = palette != null ? 1 : 4;
+        final Deflater deflater = new Deflater(deflateLevel);
+        try {
+            final IdatOutputStream idat = new IdatOutputStream(out);
+            final DeflaterOutputStream compressed
+                    = new DeflaterOutputStream(idat, deflater, CHUNK_SIZE);
+            final RowFilter rowFilter = new RowFilter(width * bytesPerPixel, bytesPerPixel);
+            for (int y = 0; y < height; y++) {
+                final byte[] row = rowFilter.current;
+                if (palette != null) {
+                    palette.indexRow(pixels, y * width, width, row);
+                } else {
+                    rgbaRow(pixels, y * width, width, row);
+                }
+                final byte[] filtered = rowFilter.apply(filter);
+                compressed.write(filtered, 0, filtered.length);
+                rowFilter.nextRow();
+            }
+            compressed.finish();
+            idat.flushChunk();
+        } finally {
+            deflater.end();
+        }
+        writeChunk(out, "IEND", new byte[0]);
+        out.flush();
+    }
+
+    /**
+     * @return the image as ARGB ints, without copying for INT_ARGB images that own their raster.
+     * Sub images share the raster of their parent and are copied.
+     */
+    private static int[] argbPixels(final BufferedImage image) {
+        if (image.getType() == BufferedImage.TYPE_INT_ARGB
+                && image.getRaster().getParent() == null
+                && image.getRaster().getDataBuffer() instanceof DataBufferInt) {
+            return ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        }
+        return image.getRGB(0, 0, image.getWidth(), image.getHeight(), null, 0, image.getWidth());
+    }
+
+    private static void rgbaRow(final int[] pixels, final int start, final int width,
+            final byte[] row) {
+        int i = 1;
+        for (int x = 0; x < width; x++) {
+            final int argb = pixels[start + x];
+            row[i++] = (byte) (argb >>> 16);
+            row[i++] = (byte) (argb >>> 8);
+            row[i++] = (byte) argb;
+            row[i++] = (byte) (argb >>> 24);
+        }
+    }
+
+    private static void writeChunk(final DataOutputStream out, final String type,
+            final byte[] data) throws IOException {
+        writeChunk(out, type, data, data.length);
+    }
+
+    private static void writeChunk(final DataOutputStream out, final String type,
+            final byte[] data, final int length) throws IOException {
+        final byte[] typeBytes = type.getBytes(StandardCharsets.US_ASCII);
+        final CRC32 crc = new CRC32();
+        crc.update(typeBytes);
+        crc.update(data, 0, length);
+        out.writeInt(length);
+        out.write(typeBytes);
+        out.write(data, 0, length);
+        out.writeInt((int) crc.getValue());
+    }
+
+    /**
+     * Colors of an image in order of first appearance.
+     */
+    private static class Palette {
+        // Open addressing table from ARGB to index + 1. 0 marks a free slot.
+        private final int[] keys = new int[MAX_PALETTE_SIZE * 4];
+        private final int[] slots = new int[MAX_PALETTE_SIZE * 4];
+        private final int[] colors = new int[MAX_PALETTE_SIZE];
+        private int size = 0;
+
+        /**
+         * @return the palette, or null if the image has more than 256 colors.
+         */
+        static Palette of(final int[] pixels) {
+            final Palette palette = new Palette();
+            int previous = 0;
+            boolean first = true;
+            for (final int argb : pixels) {
+                // Neighbouring pixels usually have the same color.
+                if (!first && argb == previous) {
+                    continue;
+                }
+                first = false;
+                previous = argb;
+                if (palette.indexOf(argb) < 0) {
+                    if (palette.size == MAX_PALETTE_SIZE) {
+                        return null;
+                    }
+                    palette.add(argb);
+                }
+            }
+            return palette;
+        }
+
+        private int slotOf(final int argb) {
+            final int mask = keys.length - 1;
+            int slot = (argb * 0x9E3779B9) >>> 22 & mask;
+            while (slots[slot] != 0 && keys[slot] != argb) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        int indexOf(final int argb) {
+            final int slot = slotOf(argb);
+            return slots[slot] - 1;
+        }
+
+        private void add(final int argb) {
+            final int slot = slotOf(argb);
+            keys[slot] = argb;
+            slots[slot] = size + 1;
+            colors[size++] = argb;
+        }
+
+        void indexRow(final int[] pixels, final int start, final int width, final byte[] row) {
+            int previous = pixels[start];
+            int previousIndex = indexOf(previous);
+            for (int x = 0; x < width; x++) {
+                final int argb = pixels[start + x];
+                if (argb != previous) {
+                    previous = argb;
+                    previousIndex = indexOf(argb);
+                }
+                row[x + 1] = (byte) previousIndex;
+            }
+        }
+
+        byte[] rgb() {
+            final byte[] rgb = new byte[size * 3];
+            for (int i = 0; i < size; i++) {
+                rgb[3 * i] = (byte) (colors[i] >>> 16);
+                rgb[3 * i + 1] = (byte) (colors[i] >>> 8);
+                rgb[3 * i + 2] = (byte) colors[i];
+            }
+            return rgb;
+        }
+
+        /**
+         * @return alpha of each entry, up to the last one that is not opaque.
+         */
+        byte[] alpha() {
+            int length = size;
+            while (length > 0 && colors[length - 1] >>> 24 == 0xff) {
+                length--;
+            }
+            final byte[] alpha = new byte[length];
+            for (int i = 0; i < length; i++) {
+                alpha[i] = (byte) (colors[i] >>> 24);
+            }
+            return alpha;
+        }
+    }
+
+    /**
+     * Filters rows. Rows are stored with a leading filter type byte.
+     */
+    private static class RowFilter {
+        private final int bytesPerPixel;
+        private byte[] current;
+        private byte[] previous;
+        private final byte[][] candidates = new byte[5][];
+
+        RowFilter(final int rowBytes, final int bytesPerPixel) {
+            this.bytesPerPixel = bytesPerPixel;
+            this.current = new byte[rowBytes + 1];
+            this.previous = new byte[rowBytes + 1];
+            for (int type = 0; type < candidates.length; type++) {
+                candidates[type] = new byte[rowBytes + 1];
+                candidates[type][0] = (byte) type;
+            }
+        }
+
+        /**
+         * @return the current row filtered, including its filter type byte.
+         */
+        byte[] apply(final Filter filter) {
+            switch (filter) {
+                case NONE:
+                    current[0] = 0;
+                    return current;
+                case ADAPTIVE:
+                    byte[] best = null;
+                    long bestSum = Long.MAX_VALUE;
+                    for (int type = 0; type < candidates.length; type++) {
+                        final byte[] candidate = filterRow(type);
+                        long sum = 0;
+                        for (int i = 1; i < candidate.length; i++) {
+                            sum += Math.abs(candidate[i]);
+                        }
+                        if (sum < bestSum) {
+                            bestSum = sum;
+                            best = candidate;
+                        }
+                    }
+                    return best;
+                default:
+                    return filterRow(filter.ordinal());
+            }
+        }
+
+        private byte[] filterRow(final int type) {
+            final byte[] out = candidates[type];
+            for (int i = 1; i < current.length; i++) {
+                final int x = current[i] & 0xff;
+                final int a = i > bytesPerPixel ? current[i - bytesPerPixel] & 0xff : 0;
+                final int b = previous[i] & 0xff;
+                final int c = i > bytesPerPixel ? previous[i - bytesPerPixel] & 0xff : 0;
+                final int predictor;
+                switch (type) {
+                    case 1: predictor = a; break;
+                    case 2: predictor = b; break;
+                    case 3: predictor = (a + b) >>> 1; break;
+                    case 4: predictor = paeth(a, b, c); break;
+                    default: predictor = 0;
+                }
+                out[i] = (byte) (x - predictor);
+            }
+            return out;
+        }
+
+        private static int paeth(final int a, final int b, final int c) {
+            final int p = a + b - c;
+            final int pa = Math.abs(p - a);
+            final int pb = Math.abs(p - b);
+            final int pc = Math.abs(p - c);
+            if (pa <= pb && pa <= pc) {
+                return a;
+            }
+            return pb <= pc ? b : c;
+        }
+
+        void nextRow() {
+            final byte[] swap = previous;
+            previous = current;
+            current = swap;
+        }
+    }
+
+    /**
+     * Writes compressed data as IDAT chunks of up to {@link #CHUNK_SIZE} bytes.
+     */
+    private static class IdatOutputStream extends OutputStream {
+        private final DataOutputStream out;
+        private final byte[] buffer = new byte[CHUNK_SIZE];
+        private int length = 0;
+
+        IdatOutputStream(final DataOutputStream out) {
+            this.out = out;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (length == buffer.length) {
+                flushChunk();
+            }
+            buffer[length++] = (byte) b;
+        }
+
+        @Override
+        public void write(final byte[] bytes, int offset, int count) throws IOException {
+            while (count > 0) {
+                if (length == buffer.length) {
+                    flushChunk();
+                }
+                final int n = Math.min(count, buffer.length - length);
+                System.arraycopy(bytes, offset, buffer, length, n);
+                length += n;
+                offset += n;
+                count -= n;
+            }
+        }
+
+        void flushChunk() throws IOException {
+            if (length > 0) {
+                writeChunk(out, "IDAT", buffer, length);
+                length = 0;
+            }
+        }
+    }
+}
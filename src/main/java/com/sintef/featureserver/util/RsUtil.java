@@ -1,7 +1,11 @@
 package com.sintef.featureserver.util;
 
 import com.sintef.featureserver.exception.BadRequestException;
+import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
 
+import java.awt.image.BufferedImage;
+import javax.ws.rs.core.StreamingOutput;
 import org.json.JSONArray;
 import org.json.JSONObject;
 
@@ -10,6 +14,15 @@ import org.json.JSONObject;
  */
 public class RsUtil {
 
+    /**
+     * Response header telling which stride (every N'th grid cell along x and y) the data behind
+     * an area image was read with.
+     */
+    public static final String STRIDE_HEADER = "X-Effective-Stride";
+
+    // Set from the launch flags at startup.
+    public static PngEncoder pngEncoder = new PngEncoder(6, PngEncoder.Filter.NONE);
+
     /**
      * Validates input format for "4D" resources where the user is required to provide an
      * (x, y) rectangle, and z and t coordinates.
@@ -60,17 +73,30 @@ public class RsUtil {
 
 
 
-    public static double[][] getMagnitudesFromVectors(final double[][][] vectors) {
-        final double[][] magnitudes = new double[vectors.length][vectors[0].length];
-        for (int x = 0; x < vectors.length; x++) {
-            for (int y = 0; y < vectors[0].length; y++) {
-                magnitudes[x][y] = Math.sqrt(
-                        Math.pow(vectors[x][y][0], 2) +
-                        Math.pow(vectors[x][y][1], 2)
-                        );
+    /**
+     * @return the scalar feature with the given netCDF variable name, e.g. for a {feature} path
+     * parameter.
+     * @throws BadRequestException if there is no scalar feature with that name.
+     */
+    public static Feature scalarFeature(final String name) {
+        final JSONArray known = new JSONArray();
+        for (final Feature feature : Feature.values()) {
+            if (feature.dimension() == 1) {
+                if (feature.x().equals(name)) {
+                    return feature;
+                }
+                known.put(feature.x());
             }
         }
-        return magnitudes;
+        throw new BadRequestException("Unknown feature: " + name,
+                new JSONObject().put("features", known));
+    }
+
+    /**
+     * @return the stride of a grid formatted for {@link #STRIDE_HEADER}, e.g. "4,4".
+     */
+    public static String strideToHeader(final FeatureGrid grid) {
+        return grid.getDecimation() + "," + grid.getDecimation();
     }
 
     public static JSONArray doubleArrayToJson(final double[] source) {
@@ -84,4 +110,12 @@ public class RsUtil {
         }
         return jsonArray;
     }
+
+    /**
+     * @return the image as a PNG that is encoded while it is written to the response.
+     */
+    public static StreamingOutput toPng(final BufferedImage image) {
+        final PngEncoder encoder = pngEncoder;
+        return output -> encoder.write(image, output);
+    }
 }
@@ -0,0 +1,89 @@
+package com.sintef.featureserver.util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+import org.json.JSONObject;
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * Coalesces concurrent computations of the same key.
+ *
+ * The first caller for a key computes the value; callers that arrive while it is running wait
+ * for it and get the same value, or the same exception. Nothing is kept once the computation
+ * is done, so this does not replace a cache, it only stops a burst of identical requests from
+ * doing the same work at once.
+ *
+ * @param <K> Key type, with value equality.
+ * @param <V> Value type. Values are shared between callers and must not be modified.
+ */
+public final class SingleFlight<K, V> {
+    private final ConcurrentHashMap<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    // Metrics
+    private final AtomicLong computations = new AtomicLong();
+    private final AtomicLong coalescedWaits = new AtomicLong();
+
+    /**
+     * A computation that may fail like a data read.
+     */
+    public interface Computation<V> {
+        V compute() throws IOException, InvalidRangeException;
+    }
+
+    /**
+     * @return the value computed for the key, by this thread or by one already computing it.
+     */
+    public V execute(final K key, final Computation<V> computation)
+            throws IOException, InvalidRangeException {
+        final CompletableFuture<V> flight = new CompletableFuture<>();
+        final CompletableFuture<V> running = inFlight.putIfAbsent(key, flight);
+        if (running != null) {
+            coalescedWaits.incrementAndGet();
+            return await(running, key);
+        }
+        computations.incrementAndGet();
+        try {
+            final V value = computation.compute();
+            flight.complete(value);
+            return value;
+        } catch (final IOException | InvalidRangeException | RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, flight);
+        }
+    }
+
+    private static <V> V await(final CompletableFuture<V> flight, final Object key)
+            throws IOException, InvalidRangeException {
+        try {
+            return flight.get();
+        } catch (final InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for " + key);
+        } catch (final ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InvalidRangeException) {
+                throw (InvalidRangeException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new IOException("Computing " + key + " failed", cause);
+        }
+    }
+
+    public JSONObject getStatistics() {
+        return new JSONObject()
+                .put("computations", computations.get())
+                .put("coalescedWaits", coalescedWaits.get())
+                .put("inFlight", inFlight.size());
+    }
+}
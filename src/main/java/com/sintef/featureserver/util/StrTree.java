@@ -0,0 +1,143 @@
+package com.sintef.featureserver.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Function;
+
+/**
+ * Immutable R-tree of rectangles, bulk loaded with the Sort-Tile-Recursive algorithm.
+ *
+ * STR sorts the rectangles by x into vertical slices, sorts each slice by y and packs runs of
+ * them into full nodes, then does the same with the nodes one level up. The nodes are full and
+ * overlap little, so a query visits few of them. Rectangles are closed: touching counts as
+ * intersecting, and a point is a rectangle of size zero.
+ *
+ * @param <T> Item type.
+ */
+public final class StrTree<T> {
+    private static final int NODE_CAPACITY = 16;
+
+    private final Node root;
+    private final int size;
+
+    /**
+     * @param items Items to index.
+     * @param bounds Rectangle of an item as {minX, minY, maxX, maxY}. Only called while building.
+     */
+    public StrTree(final Collection<T> items, final Function<T, double[]> bounds) {
+        List<Node> level = new ArrayList<>(items.size());
+        for (final T item : items) {
+            final double[] b = bounds.apply(item);
+            level.add(new Node(b[0], b[1], b[2], b[3], item));
+        }
+        this.size = level.size();
+        while (level.size() > 1) {
+            level = pack(level);
+        }
+        this.root = level.isEmpty() ? null : level.get(0);
+    }
+
+    public int size() { return size; }
+
+    /**
+     * @return the items whose rectangle intersects the given one, in no particular order.
+     */
+    public List<T> query(
+            final double minX,
+            final double minY,
+            final double maxX,
+            final double maxY) {
+        final List<T> result = new ArrayList<>();
+        if (root != null) {
+            query(root, minX, minY, maxX, maxY, result);
+        }
+        return result;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void query(
+            final Node node,
+            final double minX,
+            final double minY,
+            final double maxX,
+            final double maxY,
+            final List<T> result) {
+        if (node.minX > maxX || node.maxX < minX || node.minY > maxY || node.maxY < minY) {
+            return;
+        }
+        if (node.children == null) {
+            result.add((T) node.item);
+            return;
+        }
+        for (final Node child : node.children) {
+            query(child, minX, minY, maxX, maxY, result);
+        }
+    }
+
+    /**
+     * Packs one level of nodes into parent nodes.
+     */
+    private static List<Node> pack(final List<Node> nodes) {
+        final int parentCount = (nodes.size() + NODE_CAPACITY - 1) / NODE_CAPACITY;
+        final int sliceCount = (int) Math.ceil(Math.sqrt(parentCount));
+        final int sliceSize = sliceCount * NODE_CAPACITY;
+
+        nodes.sort(Comparator.comparingDouble(node -> node.minX + node.maxX));
+        final List<Node> parents = new ArrayList<>(parentCount);
+        for (int sliceStart = 0; sliceStart < nodes.size(); sliceStart += sliceSize) {
+            final List<Node> slice = new ArrayList<>(
+                    nodes.subList(sliceStart, Math.min(sliceStart + sliceSize, nodes.size())));
+            slice.sort(Comparator.comparingDouble(node -> node.minY + node.maxY));
+            for (int start = 0; start < slice.size(); start += NODE_CAPACITY) {
+                parents.add(new Node(slice.subList(
+                        start, Math.min(start + NODE_CAPACITY, slice.size()))));
+            }
+        }
+        return parents;
+    }
+
+    private static final class Node {
+        final double minX;
+        final double minY;
+        final double maxX;
+        final double maxY;
+        // Either the children of an inner node or the item of a leaf.
+        final Node[] children;
+        final Object item;
+
+        Node(
+                final double minX,
+                final double minY,
+                final double maxX,
+                final double maxY,
+                final Object item) {
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.children = null;
+            this.item = item;
+        }
+
+        Node(final List<Node> children) {
+            double minX = Double.POSITIVE_INFINITY;
+            double minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY;
+            double maxY = Double.NEGATIVE_INFINITY;
+            for (final Node child : children) {
+                minX = Math.min(minX, child.minX);
+                minY = Math.min(minY, child.minY);
+                maxX = Math.max(maxX, child.maxX);
+                maxY = Math.max(maxY, child.maxY);
+            }
+            this.minX = minX;
+            this.minY = minY;
+            this.maxX = maxX;
+            this.maxY = maxY;
+            this.children = children.toArray(new Node[children.size()]);
+            this.item = null;
+        }
+    }
+}
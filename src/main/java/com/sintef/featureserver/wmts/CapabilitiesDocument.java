@@ -0,0 +1,144 @@
+package com.sintef.featureserver.wmts;
+
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.util.CacheHeaders;
+import com.sintef.featureserver.util.VelocityUtil;
+import java.io.IOException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.ws.rs.core.UriBuilder;
+import org.apache.velocity.Template;
+import org.apache.velocity.VelocityContext;
+import org.joda.time.DateTime;
+import ucar.unidata.geoloc.LatLonRect;
+
+/**
+ * The WMTS Capabilities document, rendered once per base URI and kept until the data changes.
+ *
+ * GIS clients fetch the document constantly, and rendering it reads the data files for the time
+ * steps and depths. Rendered documents are kept for the base URIs the server is
+ * reached through, and are all dropped when {@link TileService#getDataVersion()} changes. The base
+ * URI comes from the Host header, which clients control, so only the most recently used few are
+ * kept.
+ *
+ * @author arve
+ */
+public class CapabilitiesDocument {
+    public static final String TEMPLATE = "capabilities.xml";
+    // Base URIs kept, e.g. the internal name, the public name and the address.
+    private static final int MAX_DOCUMENTS = 8;
+
+    private final NetCdfManager netCdfManager;
+    private final TileService tileService;
+    private final Template template;
+    private final int maxAgeSeconds;
+    // LRU of the rendered documents by base URI. Guarded by itself.
+    private final LinkedHashMap<URI, Rendered> documents
+            = new LinkedHashMap<URI, Rendered>(16, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<URI, Rendered> eldest) {
+                    return size() > MAX_DOCUMENTS;
+                }
+            };
+    private String documentsVersion;
+
+    /**
+     * @param template The parsed capabilities template.
+     * @param maxAgeSeconds How long clients may reuse the document.
+     */
+    public CapabilitiesDocument(
+            final NetCdfManager netCdfManager,
+            final TileService tileService,
+            final Template template,
+            final int maxAgeSeconds) {
+        this.netCdfManager = netCdfManager;
+        this.tileService = tileService;
+        this.template = template;
+        this.maxAgeSeconds = maxAgeSeconds;
+    }
+
+    /**
+     * @param baseUri Base URI of the server as the client sees it. Resource URLs in the document
+     * are below it.
+     */
+    public Rendered get(final URI baseUri) throws IOException {
+        final String version = tileService.getDataVersion();
+        synchronized (documents) {
+            if (!version.equals(documentsVersion)) {
+                documents.clear();
+                documentsVersion = version;
+            }
+            final Rendered cached = documents.get(baseUri);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // Two threads may render the same document at once. That is harmless and rare.
+        final Rendered rendered = new Rendered(
+                render(baseUri),
+                CacheHeaders.forKey(version + baseUri, tileService.getDataModified(),
+                        maxAgeSeconds));
+        synchronized (documents) {
+            if (version.equals(documentsVersion)) {
+                final Rendered previous = documents.putIfAbsent(baseUri, rendered);
+                if (previous != null) {
+                    return previous;
+                }
+            }
+        }
+        return rendered;
+    }
+
+    /**
+     * Drops the rendered documents, e.g. when a data file was added or removed.
+     */
+    public void invalidate() {
+        synchronized (documents) {
+            documents.clear();
+            documentsVersion = null;
+        }
+    }
+
+    private String render(final URI baseUri) throws IOException {
+        final URI wmtsBaseUrl = UriBuilder.fromUri(baseUri).path("WMTS").build();
+        final LatLonRect boundingBox = netCdfManager.getBoundingBox();
+        final List<String> times = new ArrayList<>();
+        for (final DateTime time : netCdfManager.getTimeSteps()) {
+            times.add(time.toString());
+        }
+        final List<Double> depths = new ArrayList<>();
+        for (final double depth : netCdfManager.getDepths()) {
+            depths.add(depth);
+        }
+
+        final VelocityContext context = new VelocityContext();
+        context.put("WmtsBaseUrl", wmtsBaseUrl);
+        context.put("upperLeftPoint", boundingBox.getUpperLeftPoint());
+        context.put("lowerRightPoint", boundingBox.getLowerRightPoint());
+        context.put("tileMatrixSet", tileService.getTileMatrixSet());
+        context.put("layers", Layer.values());
+        context.put("times", times);
+        context.put("depths", depths);
+        return VelocityUtil.renderTemplate(template, context);
+    }
+
+    /**
+     * A rendered document and its validators.
+     */
+    public static final class Rendered {
+        private final String xml;
+        private final CacheHeaders cacheHeaders;
+
+        private Rendered(final String xml, final CacheHeaders cacheHeaders) {
+            this.xml = xml;
+            this.cacheHeaders = cacheHeaders;
+        }
+
+        public String getXml() { return xml; }
+
+        public CacheHeaders getCacheHeaders() { return cacheHeaders; }
+    }
+}
@@ -3,6 +3,7 @@ package com.sintef.featureserver.wmts;
 import java.util.ArrayList;
 import java.util.List;
 import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
 import ucar.unidata.geoloc.LatLonRect;
 
 /**
@@ -45,6 +46,12 @@ public class GoogleMapsCompatibleTileMatrixSet {
             "tile matrix set defined by OGC WMTS specification";
     public static final String CRS = "urn:ogc:def:crs:EPSG:6.18:3:3857";
     public static final String SCALE_SET = "urn:ogc:def:wkss:OGC:1.0:GoogleMapsCompatible";
+    // Top left corner of every tile matrix, in meters of the CRS. The well-known scale set
+    // always covers the whole world, whatever the extent of the data.
+    public static final double ORIGIN_X = -20037508.3427892;
+    public static final double ORIGIN_Y = 20037508.3427892;
+    private static final LatLonPoint TOP_LEFT_CORNER
+            = new LatLonPointImpl(WmtsHelper.MAX_LATITUDE, -180.0);
 
     private final List<TileMatrix> tileMatrices;
     private double lowestPixelScale;
@@ -54,7 +61,7 @@ public class GoogleMapsCompatibleTileMatrixSet {
             final LatLonRect boundingBox) {
         final double lowestScaleDenominator = sourceDataPixelSize / 0.00028;
         this.bbox = boundingBox;
-        tileMatrices = generateTileMatrices(lowestScaleDenominator, bbox.getUpperLeftPoint());
+        tileMatrices = generateTileMatrices(lowestScaleDenominator, TOP_LEFT_CORNER);
     }
 
     private List<TileMatrix> generateTileMatrices(final double lowestScaleDenominator,
@@ -98,4 +105,8 @@ public class GoogleMapsCompatibleTileMatrixSet {
     public static String getCrs() { return CRS; }
 
     public static String getScaleSet() { return SCALE_SET; }
+
+    public static double getOriginX() { return ORIGIN_X; }
+
+    public static double getOriginY() { return ORIGIN_Y; }
 }
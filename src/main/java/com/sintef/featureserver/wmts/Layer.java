@@ -0,0 +1,78 @@
+package com.sintef.featureserver.wmts;
+
+import com.sintef.featureserver.netcdf.AreaBounds;
+import com.sintef.featureserver.netcdf.Feature;
+import com.sintef.featureserver.netcdf.FeatureGrid;
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.rs.features.TemperatureResource;
+import java.io.IOException;
+import ucar.ma2.InvalidRangeException;
+
+/**
+ * The layers served as WMTS tiles. Each layer reads a {@link Feature} from the data files and
+ * renders it with the color scale of another (or the same) feature.
+ *
+ * @author arve
+ */
+public enum Layer {
+    // Rendered in Celsius, like the temperature area resource.
+    TEMPERATURE("temperature", "Sea temperature", Feature.TEMPERATURE, Feature.TEMPERATURE,
+            (float) -TemperatureResource.KELVIN_TO_CELSIUS),
+    SALINITY("salinity", "Salinity", Feature.SALINITY, Feature.SALINITY, 0f),
+    DEPTH("depth", "Depth", Feature.DEPTH, Feature.DEPTH, 0f),
+    CURRENT_MAGNITUDE("current-magnitude", "Current speed",
+            Feature.WATER_VELOCITY, Feature.CURRENT_MAGNITUDE, 0f),
+    WIND_MAGNITUDE("wind-magnitude", "Wind speed",
+            Feature.WIND_VELOCITY, Feature.WIND_MAGNITUDE, 0f);
+
+    private final String identifier;
+    private final String title;
+    private final Feature source;
+    private final Feature style;
+    private final float valueOffset;
+
+    private Layer(
+            final String identifier,
+            final String title,
+            final Feature source,
+            final Feature style,
+            final float valueOffset) {
+        this.identifier = identifier;
+        this.title = title;
+        this.source = source;
+        this.style = style;
+        this.valueOffset = valueOffset;
+    }
+
+    /**
+     * @return the layer with the given WMTS identifier, or null if there is none.
+     */
+    public static Layer fromIdentifier(final String identifier) {
+        for (final Layer layer : values()) {
+            if (layer.identifier.equals(identifier)) {
+                return layer;
+            }
+        }
+        return null;
+    }
+
+    public String getIdentifier() { return identifier; }
+
+    public String getTitle() { return title; }
+
+    /**
+     * @return the feature whose color scale the layer is rendered with.
+     */
+    public Feature getStyle() { return style; }
+
+    /**
+     * Reads the values to render for an area. Vector features are rendered as their magnitude.
+     */
+    public FeatureGrid read(final NetCdfManager netCdfManager, final AreaBounds bounds)
+            throws IOException, InvalidRangeException {
+        final FeatureGrid grid = source.dimension() == 2
+                ? netCdfManager.getVectorArea(bounds, source).magnitude()
+                : netCdfManager.getScalarArea(bounds, source);
+        return valueOffset == 0f ? grid : grid.offsetValues(valueOffset);
+    }
+}
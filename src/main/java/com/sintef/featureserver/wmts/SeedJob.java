@@ -0,0 +1,131 @@
+package com.sintef.featureserver.wmts;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+import org.json.JSONObject;
+
+/**
+ * Progress of one seeding run started by {@link TileSeeder}.
+ *
+ * @author arve
+ */
+public class SeedJob {
+    private final int id;
+    private final List<Layer> layers;
+    private final int minZoom;
+    private final int maxZoom;
+    private final List<DateTime> times;
+    private final List<Float> depths;
+    private final long totalTiles;
+    private final long createdAt = System.currentTimeMillis();
+
+    private final AtomicLong rendered = new AtomicLong();
+    private final AtomicLong cached = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicInteger remainingTasks;
+    private volatile long startedAt = 0;
+    private volatile long finishedAt = 0;
+    // First error that stopped a task, or null.
+    private volatile String error = null;
+
+    SeedJob(
+            final int id,
+            final List<Layer> layers,
+            final int minZoom,
+            final int maxZoom,
+            final List<DateTime> times,
+            final List<Float> depths,
+            final long totalTiles,
+            final int tasks) {
+        this.id = id;
+        this.layers = layers;
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.times = times;
+        this.depths = depths;
+        this.totalTiles = totalTiles;
+        this.remainingTasks = new AtomicInteger(tasks);
+    }
+
+    public int getId() { return id; }
+
+    public boolean isFinished() { return finishedAt != 0; }
+
+    /**
+     * @return true if the job is finished and at least one of its tasks was aborted.
+     */
+    public boolean isFailed() { return finishedAt != 0 && error != null; }
+
+    void taskStarted() {
+        if (startedAt == 0) {
+            synchronized (this) {
+                if (startedAt == 0) {
+                    startedAt = System.currentTimeMillis();
+                }
+            }
+        }
+    }
+
+    void taskFinished() {
+        if (remainingTasks.decrementAndGet() == 0) {
+            finishedAt = System.currentTimeMillis();
+        }
+    }
+
+    /**
+     * @param wasCached true if the tiles were already in the cache.
+     */
+    void tilesDone(final int tiles, final boolean wasCached) {
+        (wasCached ? cached : rendered).addAndGet(tiles);
+    }
+
+    void tilesFailed(final int tiles) {
+        failed.addAndGet(tiles);
+    }
+
+    /**
+     * Records that a task was aborted before all of its tiles were tried. The job still finishes
+     * when its last task does, and is then reported as failed.
+     */
+    synchronized void taskFailed(final Throwable cause) {
+        if (error == null) {
+            error = String.valueOf(cause);
+        }
+    }
+
+    public JSONObject toJson() {
+        final long done = rendered.get() + cached.get() + failed.get();
+        final long end = finishedAt != 0 ? finishedAt : System.currentTimeMillis();
+        final double seconds = startedAt == 0 ? 0 : (end - startedAt) / 1000.0;
+        final JSONArray layerIds = new JSONArray();
+        for (final Layer layer : layers) {
+            layerIds.put(layer.getIdentifier());
+        }
+        final JSONArray timeValues = new JSONArray();
+        for (final DateTime time : times) {
+            timeValues.put(time.toString());
+        }
+        final String state = finishedAt == 0 ? startedAt != 0 ? "running" : "queued"
+                : error != null ? "failed" : "finished";
+        return new JSONObject()
+                .put("id", id)
+                .put("state", state)
+                .put("error", error == null ? JSONObject.NULL : error)
+                .put("layers", layerIds)
+                .put("minZoom", minZoom)
+                .put("maxZoom", maxZoom)
+                .put("times", timeValues)
+                .put("depths", new JSONArray(depths))
+                .put("totalTiles", totalTiles)
+                .put("rendered", rendered.get())
+                .put("alreadyCached", cached.get())
+                .put("failed", failed.get())
+                .put("percentDone", totalTiles == 0 ? 100.0 : 100.0 * done / totalTiles)
+                .put("seconds", seconds)
+                .put("tilesPerSecond", seconds == 0 ? 0 : done / seconds)
+                .put("created", new DateTime(createdAt).toString());
+    }
+}
@@ -0,0 +1,355 @@
+package com.sintef.featureserver.wmts;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.json.JSONObject;
+
+/**
+ * Two tier cache of encoded tiles.
+ *
+ * The first tier is an LRU map in memory, bounded by a byte budget. The second is a directory on
+ * disk that survives restarts; tiles found there are promoted to memory. Keys are relative paths
+ * like `version/layer/time/depth/zoom/row/col.png`, so the disk tier needs no index. Disk writes
+ * happen on a background thread and never delay a response. When the writer falls behind, new
+ * writes are dropped rather than queued without bound; the tiles stay in memory.
+ *
+ * The disk tier has a byte budget too. Its size is counted by a scan at startup and kept up to
+ * date by the writer. When it goes over the budget, the oldest written tiles are deleted until it
+ * is 10% below. Tiles of a version of the data that is known to be replaced are deleted at once
+ * with {@link #removeVersion(String)}.
+ *
+ * @author arve
+ */
+public class TileCache {
+    private static final Logger LOGGER = Logger.getLogger(TileCache.class.getName());
+    // Tiles waiting to be written to disk. More are dropped.
+    private static final int MAX_PENDING_WRITES = 4096;
+    // Removed versions remembered, so queued writes of their tiles are skipped.
+    private static final int MAX_REMOVED_VERSIONS = 1024;
+    private static final String TEMPORARY_SUFFIX = ".tmp";
+
+    private final long maxBytes;
+    private final Path directory;
+    private final long maxDiskBytes;
+    private final LinkedHashMap<String, byte[]> tiles = new LinkedHashMap<>(1024, 0.75f, true);
+    private long bytes = 0;
+    private final ThreadPoolExecutor diskWriter;
+    // Only used by the writer thread.
+    private long diskBytes = 0;
+    // Versions whose directories are still to be deleted by the writer.
+    private final Queue<String> versionsToDelete = new ConcurrentLinkedQueue<>();
+    private final Set<String> removedVersions = Collections.newSetFromMap(
+            Collections.synchronizedMap(new LinkedHashMap<String, Boolean>() {
+                @Override
+                protected boolean removeEldestEntry(final Map.Entry<String, Boolean> eldest) {
+                    return size() > MAX_REMOVED_VERSIONS;
+                }
+            }));
+
+    // Metrics
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+    private final AtomicLong diskWrites = new AtomicLong();
+    private final AtomicLong droppedWrites = new AtomicLong();
+    private final AtomicLong diskEvictions = new AtomicLong();
+    private volatile long reportedDiskBytes = 0;
+
+    /**
+     * @param maxBytes Byte budget of the memory tier. 0 disables it.
+     * @param directory Root of the disk tier, or null to disable it.
+     * @param maxDiskBytes Byte budget of the disk tier.
+     */
+    public TileCache(final long maxBytes, final Path directory, final long maxDiskBytes) {
+        this.maxBytes = maxBytes;
+        this.directory = directory;
+        this.maxDiskBytes = maxDiskBytes;
+        this.diskWriter = new ThreadPoolExecutor(1, 1, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(MAX_PENDING_WRITES),
+                runnable -> {
+                    final Thread thread = new Thread(runnable, "tile-writer");
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                (runnable, executor) -> droppedWrites.incrementAndGet());
+        if (directory != null) {
+            // Counts what earlier runs left on disk, and trims it to the budget.
+            diskWriter.execute(this::trimDisk);
+        }
+    }
+
+    /**
+     * @return the tile, or null if it is in neither tier.
+     */
+    public byte[] get(final String key) {
+        final byte[] cached;
+        synchronized (this) {
+            cached = tiles.get(key);
+        }
+        if (cached != null) {
+            memoryHits.incrementAndGet();
+            return cached;
+        }
+        if (directory != null) {
+            try {
+                final byte[] stored = Files.readAllBytes(directory.resolve(key));
+                diskHits.incrementAndGet();
+                putInMemory(key, stored);
+                return stored;
+            } catch (final NoSuchFileException e) {
+                // Not on disk either
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Could not read cached tile " + key, e);
+            }
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Stores a tile in both tiers. The tile must not be modified afterwards.
+     */
+    public void put(final String key, final byte[] tile) {
+        putInMemory(key, tile);
+        if (directory != null) {
+            // The version is in use again, e.g. a file that was removed came back unchanged.
+            removedVersions.remove(versionOf(key));
+            diskWriter.execute(() -> writeToDisk(key, tile));
+        }
+    }
+
+    private static String versionOf(final String key) {
+        return key.substring(0, Math.max(0, key.indexOf('/')));
+    }
+
+    /**
+     * Drops every tile of a version of the data, from memory at once and from disk in the
+     * background.
+     *
+     * @param version The first element of the keys.
+     */
+    public void removeVersion(final String version) {
+        final String prefix = version + "/";
+        synchronized (this) {
+            final Iterator<Map.Entry<String, byte[]>> entries = tiles.entrySet().iterator();
+            while (entries.hasNext()) {
+                final Map.Entry<String, byte[]> entry = entries.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    bytes -= entry.getValue().length;
+                    entries.remove();
+                }
+            }
+        }
+        if (directory != null) {
+            removedVersions.add(version);
+            versionsToDelete.add(version);
+            // If the queue is full, the next write deletes it.
+            diskWriter.execute(this::deleteRemovedVersions);
+        }
+    }
+
+    private void putInMemory(final String key, final byte[] tile) {
+        if (tile.length > maxBytes) {
+            return;
+        }
+        synchronized (this) {
+            final byte[] previous = tiles.put(key, tile);
+            if (previous != null) {
+                bytes -= previous.length;
+            }
+            bytes += tile.length;
+            final Iterator<byte[]> eldest = tiles.values().iterator();
+            while (bytes > maxBytes && eldest.hasNext()) {
+                bytes -= eldest.next().length;
+                eldest.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    private void writeToDisk(final String key, final byte[] tile) {
+        deleteRemovedVersions();
+        if (removedVersions.contains(versionOf(key))) {
+            return;
+        }
+        final Path target = directory.resolve(key);
+        final Path temporary = target.resolveSibling(target.getFileName() + TEMPORARY_SUFFIX);
+        try {
+            Files.createDirectories(target.getParent());
+            Files.write(temporary, tile);
+            final long replaced = Files.exists(target) ? Files.size(target) : 0;
+            Files.move(temporary, target,
+                    StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            diskWrites.incrementAndGet();
+            diskBytes += tile.length - replaced;
+            reportedDiskBytes = diskBytes;
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not store tile " + key, e);
+        }
+        if (diskBytes > maxDiskBytes) {
+            trimDisk();
+        }
+    }
+
+    /**
+     * Deletes the directories of the removed versions. Runs on the writer thread.
+     */
+    private void deleteRemovedVersions() {
+        String version;
+        while ((version = versionsToDelete.poll()) != null) {
+            final Path versionDirectory = directory.resolve(version);
+            if (!Files.isDirectory(versionDirectory)) {
+                continue;
+            }
+            try {
+                final long[] deleted = new long[1];
+                Files.walkFileTree(versionDirectory, new SimpleFileVisitor<Path>() {
+                    @Override
+                    public FileVisitResult visitFile(
+                            final Path file, final BasicFileAttributes attributes)
+                            throws IOException {
+                        Files.delete(file);
+                        deleted[0] += attributes.size();
+                        return FileVisitResult.CONTINUE;
+                    }
+
+                    @Override
+                    public FileVisitResult postVisitDirectory(final Path dir, final IOException e)
+                            throws IOException {
+                        Files.delete(dir);
+                        return FileVisitResult.CONTINUE;
+                    }
+                });
+                diskBytes -= deleted[0];
+                reportedDiskBytes = diskBytes;
+            } catch (final IOException e) {
+                LOGGER.log(Level.WARNING, "Could not delete cached tiles of " + version, e);
+            }
+        }
+    }
+
+    /**
+     * Counts the bytes on disk and, if they are over the budget, deletes the oldest written tiles
+     * and the directories left empty. Runs on the writer thread.
+     */
+    private void trimDisk() {
+        final List<StoredTile> stored = new ArrayList<>();
+        try {
+            Files.createDirectories(directory);
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult visitFile(
+                        final Path file, final BasicFileAttributes attributes) throws IOException {
+                    if (file.getFileName().toString().endsWith(TEMPORARY_SUFFIX)) {
+                        // Left by a write that was cut short
+                        Files.deleteIfExists(file);
+                    } else {
+                        stored.add(new StoredTile(file, attributes.size(),
+                                attributes.lastModifiedTime().toMillis()));
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not scan the tile cache in " + directory, e);
+            return;
+        }
+        long total = 0;
+        for (final StoredTile tile : stored) {
+            total += tile.size;
+        }
+        if (total > maxDiskBytes) {
+            final long target = maxDiskBytes / 10 * 9;
+            stored.sort(Comparator.comparingLong(tile -> tile.modified));
+            for (final StoredTile tile : stored) {
+                if (total <= target) {
+                    break;
+                }
+                try {
+                    Files.deleteIfExists(tile.path);
+                    total -= tile.size;
+                    diskEvictions.incrementAndGet();
+                } catch (final IOException e) {
+                    LOGGER.log(Level.WARNING, "Could not delete cached tile " + tile.path, e);
+                }
+            }
+            deleteEmptyDirectories();
+        }
+        diskBytes = total;
+        reportedDiskBytes = total;
+    }
+
+    private void deleteEmptyDirectories() {
+        try {
+            Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+                @Override
+                public FileVisitResult postVisitDirectory(final Path dir, final IOException e) {
+                    if (!dir.equals(directory)) {
+                        try {
+                            Files.delete(dir);
+                        } catch (final IOException notEmpty) {
+                            // Still has tiles
+                        }
+                    }
+                    return FileVisitResult.CONTINUE;
+                }
+            });
+        } catch (final IOException e) {
+            LOGGER.log(Level.WARNING, "Could not clean up " + directory, e);
+        }
+    }
+
+    private static final class StoredTile {
+        final Path path;
+        final long size;
+        final long modified;
+
+        StoredTile(final Path path, final long size, final long modified) {
+            this.path = path;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    public JSONObject getStatistics() {
+        synchronized (this) {
+            return new JSONObject()
+                    .put("tiles", tiles.size())
+                    .put("bytes", bytes)
+                    .put("maxBytes", maxBytes)
+                    .put("directory", directory == null ? JSONObject.NULL : directory.toString())
+                    .put("diskBytes", reportedDiskBytes)
+                    .put("maxDiskBytes", maxDiskBytes)
+                    .put("memoryHits", memoryHits.get())
+                    .put("diskHits", diskHits.get())
+                    .put("misses", misses.get())
+                    .put("evictions", evictions.get())
+                    .put("diskWrites", diskWrites.get())
+                    .put("droppedWrites", droppedWrites.get())
+                    .put("diskEvictions", diskEvictions.get());
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.sintef.featureserver.wmts;
+
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import org.joda.time.DateTime;
+import org.json.JSONArray;
+
+/**
+ * Renders tiles into the tile cache ahead of requests, e.g. when a new forecast file lands.
+ *
+ * A seed run covers every tile over the data for a set of layers, zoom levels, time steps and
+ * depths. The work is split into one task per (layer, time, depth) that renders all of its
+ * zoom levels metatile by metatile, so the source slice is read once into the slice cache and
+ * every tile of the task is cut from it. Tasks run on a bounded pool of low priority threads.
+ *
+ * @author arve
+ */
+public class TileSeeder {
+    private static final Logger LOGGER = Logger.getLogger(TileSeeder.class.getName());
+    // Finished jobs kept for reporting.
+    private static final int MAX_JOBS_KEPT = 20;
+
+    private final TileService tileService;
+    private final NetCdfManager netCdfManager;
+    private final ExecutorService workers;
+    private final AtomicInteger nextId = new AtomicInteger(1);
+    private final Deque<SeedJob> jobs = new ArrayDeque<>();
+
+    /**
+     * @param threads Number of worker threads.
+     */
+    public TileSeeder(
+            final TileService tileService,
+            final NetCdfManager netCdfManager,
+            final int threads) {
+        this.tileService = tileService;
+        this.netCdfManager = netCdfManager;
+        final AtomicInteger threadCount = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(Math.max(1, threads), runnable -> {
+            final Thread thread
+                    = new Thread(runnable, "tile-seeder-" + threadCount.incrementAndGet());
+            thread.setDaemon(true);
+            thread.setPriority(Thread.MIN_PRIORITY);
+            return thread;
+        });
+    }
+
+    /**
+     * Starts seeding in the background.
+     *
+     * @param layers Comma separated layer identifiers. Empty for all layers.
+     * @param minZoom First zoom level.
+     * @param maxZoom Last zoom level, or -1 for the deepest one.
+     * @param times Comma separated ISO 8601 times. Empty for every time step in the data.
+     * @param depths Comma separated depths in meters. Empty for every depth in the data.
+     * @return the job, to follow its progress.
+     * @throws IllegalArgumentException if any of the arguments are invalid.
+     */
+    public SeedJob seed(
+            final String layers,
+            final int minZoom,
+            final int maxZoom,
+            final String times,
+            final String depths) throws IOException {
+        final List<Layer> layerList = parseLayers(layers);
+        final List<DateTime> timeList = parseTimes(times);
+        final List<Float> depthList = parseDepths(depths);
+        final int zoomLevels = tileService.getTileMatrixSet().getTileMatrices().size();
+        final int lastZoom = maxZoom < 0 ? zoomLevels - 1 : maxZoom;
+        if (minZoom < 0 || lastZoom >= zoomLevels || minZoom > lastZoom) {
+            throw new IllegalArgumentException("Zoom levels must be within 0-" + (zoomLevels - 1));
+        }
+
+        long tilesPerTask = 0;
+        for (int zoom = minZoom; zoom <= lastZoom; zoom++) {
+            final int[] range = tileService.tilesCoveringData(zoom);
+            tilesPerTask += (long) (range[1] - range[0] + 1) * (range[3] - range[2] + 1);
+        }
+        final int tasks = layerList.size() * timeList.size() * depthList.size();
+        final SeedJob job = new SeedJob(nextId.getAndIncrement(), layerList, minZoom, lastZoom,
+                timeList, depthList, tilesPerTask * tasks, tasks);
+        synchronized (jobs) {
+            jobs.addFirst(job);
+            while (jobs.size() > MAX_JOBS_KEPT) {
+                jobs.removeLast();
+            }
+        }
+        for (final Layer layer : layerList) {
+            for (final DateTime time : timeList) {
+                for (final float depth : depthList) {
+                    workers.submit(() -> seedSlice(job, layer, time, depth, minZoom, lastZoom));
+                }
+            }
+        }
+        LOGGER.info("Seed job " + job.getId() + " queued: " + job.toJson());
+        return job;
+    }
+
+    /**
+     * Seeds all zoom levels of one slice.
+     */
+    private void seedSlice(
+            final SeedJob job,
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int minZoom,
+            final int maxZoom) {
+        job.taskStarted();
+        boolean loggedFailure = false;
+        try {
+            for (int zoom = minZoom; zoom <= maxZoom; zoom++) {
+                final int[] range = tileService.tilesCoveringData(zoom);
+                final int size = tileService.getMetatileSize(zoom);
+                for (int row = range[0] / size * size; row <= range[1]; row += size) {
+                    for (int column = range[2] / size * size; column <= range[3]; column += size) {
+                        // Count the tiles of the metatile that are within the data
+                        final int tiles = (Math.min(row + size - 1, range[1])
+                                - Math.max(row, range[0]) + 1)
+                                * (Math.min(column + size - 1, range[3])
+                                - Math.max(column, range[2]) + 1);
+                        try {
+                            job.tilesDone(tiles,
+                                    !tileService.seed(layer, time, depth, zoom, row, column));
+                        } catch (final Exception e) {
+                            job.tilesFailed(tiles);
+                            if (!loggedFailure) {
+                                LOGGER.log(Level.WARNING, "Seeding " + layer.getIdentifier()
+                                        + " at " + time + ", " + depth + " m failed", e);
+                                loggedFailure = true;
+                            }
+                        }
+                    }
+                }
+            }
+        } catch (final Exception e) {
+            // E.g. the data file could not be read; the rest of the task is skipped.
+            job.taskFailed(e);
+            LOGGER.log(Level.WARNING, "Seed job " + job.getId() + " failed", e);
+        } finally {
+            job.taskFinished();
+            if (job.isFinished()) {
+                LOGGER.info("Seed job " + job.getId()
+                        + (job.isFailed() ? " failed: " : " finished: ") + job.toJson());
+            }
+        }
+    }
+
+    /**
+     * @return the job with the given id, or null if it is unknown or has been forgotten.
+     */
+    public SeedJob getJob(final int id) {
+        synchronized (jobs) {
+            for (final SeedJob job : jobs) {
+                if (job.getId() == id) {
+                    return job;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return the most recent jobs, newest first.
+     */
+    public JSONArray getJobs() {
+        final JSONArray result = new JSONArray();
+        synchronized (jobs) {
+            for (final SeedJob job : jobs) {
+                result.put(job.toJson());
+            }
+        }
+        return result;
+    }
+
+    private static List<Layer> parseLayers(final String layers) {
+        final List<Layer> result = new ArrayList<>();
+        if (layers == null || layers.trim().isEmpty()) {
+            for (final Layer layer : Layer.values()) {
+                result.add(layer);
+            }
+            return result;
+        }
+        for (final String identifier : layers.split(",")) {
+            final Layer layer = Layer.fromIdentifier(identifier.trim());
+            if (layer == null) {
+                throw new IllegalArgumentException("Unknown layer: " + identifier);
+            }
+            result.add(layer);
+        }
+        return result;
+    }
+
+    private List<DateTime> parseTimes(final String times) throws IOException {
+        if (times == null || times.trim().isEmpty()) {
+            final List<DateTime> timeSteps = netCdfManager.getTimeSteps();
+            if (timeSteps.isEmpty()) {
+                throw new IllegalArgumentException("The data has no time axis, give the times.");
+            }
+            return timeSteps;
+        }
+        final List<DateTime> result = new ArrayList<>();
+        for (final String time : times.split(",")) {
+            result.add(DateTime.parse(time.trim()));
+        }
+        return result;
+    }
+
+    private List<Float> parseDepths(final String depths) throws IOException {
+        final List<Float> result = new ArrayList<>();
+        if (depths == null || depths.trim().isEmpty()) {
+            for (final double depth : netCdfManager.getDepths()) {
+                result.add((float) depth);
+            }
+            if (result.isEmpty()) {
+                result.add(0f); // No depth axis
+            }
+        } else {
+            for (final String depth : depths.split(",")) {
+                result.add(Float.parseFloat(depth.trim()));
+            }
+        }
+        return result;
+    }
+}
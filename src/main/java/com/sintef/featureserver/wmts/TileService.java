@@ -0,0 +1,492 @@
+package com.sintef.featureserver.wmts;
+
+import com.sintef.featureserver.exception.BadRequestException;
+import com.sintef.featureserver.netcdf.AreaBounds;
+import com.sintef.featureserver.netcdf.CatalogEntry;
+import com.sintef.featureserver.netcdf.FeatureGrid;
+import com.sintef.featureserver.netcdf.NetCdfManager;
+import com.sintef.featureserver.util.CacheHeaders;
+import com.sintef.featureserver.util.ImageRenderer;
+import com.sintef.featureserver.util.RsUtil;
+import com.sintef.featureserver.util.SingleFlight;
+import java.awt.AlphaComposite;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.json.JSONObject;
+import ucar.ma2.InvalidRangeException;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
+
+/**
+ * Renders and caches the tiles of the {@link GoogleMapsCompatibleTileMatrixSet}.
+ *
+ * A tile is rendered as an area request for the part of the tile covered by data, placed in an
+ * otherwise transparent tile. Tiles outside the data are transparent. Within a tile the data is
+ * stretched linearly in latitude, which is close enough to mercator at tile scale.
+ *
+ * Tiles are rendered in metatiles: a block of NxN tiles read and rendered in one pass, then cut
+ * into tiles that all go into the cache. Map clients ask for adjacent tiles in bursts, so the
+ * neighbours are usually wanted right after. Concurrent requests for tiles of the same metatile
+ * wait for one render.
+ *
+ * The cache key starts with a version of the files the metatile is read from: a hash of their
+ * paths, modification times and sizes as recorded in the catalog, so looking up a cached tile
+ * does not touch the file system. Tiles rendered from an older version of a file are never
+ * served, and tiles from other files are kept when one file changes. The versions each file is
+ * part of are tracked, so {@link #invalidate(String)} drops the tiles of a file from the cache.
+ *
+ * @author arve
+ */
+public class TileService {
+    private final NetCdfManager netCdfManager;
+    private final TileCache tileCache;
+    private final int metatileSize;
+    private final int metatileBuffer;
+    private final SingleFlight<String, Map<Long, byte[]>> metatileRenders = new SingleFlight<>();
+    private volatile GoogleMapsCompatibleTileMatrixSet tileMatrixSet;
+    private volatile LatLonRect dataBounds;
+    private volatile String tileMatrixSetVersion;
+    // Tile versions that include each source file, and the identity it had then.
+    private final Map<String, Set<String>> versionsBySource = new ConcurrentHashMap<>();
+    private final Map<String, String> sourceIdentities = new ConcurrentHashMap<>();
+
+    /**
+     * @param metatileSize Tiles along each side of a metatile. 1 renders tiles one by one.
+     * @param metatileBuffer Pixels rendered around a metatile and thrown away, so nothing drawn
+     * near the edge is cut.
+     */
+    public TileService(
+            final NetCdfManager netCdfManager,
+            final TileCache tileCache,
+            final int metatileSize,
+            final int metatileBuffer) {
+        this.netCdfManager = netCdfManager;
+        this.tileCache = tileCache;
+        this.metatileSize = Math.max(1, metatileSize);
+        this.metatileBuffer = Math.max(0, metatileBuffer);
+    }
+
+    public TileCache getTileCache() { return tileCache; }
+
+    /**
+     * @return counters of the metatile renders shared by concurrent requests.
+     */
+    public JSONObject getCoalescingStatistics() { return metatileRenders.getStatistics(); }
+
+    /**
+     * @return the tile matrix set of the data, built on first use and again when the data
+     * changes.
+     */
+    public GoogleMapsCompatibleTileMatrixSet getTileMatrixSet() throws IOException {
+        final String currentVersion = getDataVersion();
+        GoogleMapsCompatibleTileMatrixSet result = tileMatrixSet;
+        if (result == null || !currentVersion.equals(tileMatrixSetVersion)) {
+            synchronized (this) {
+                if (tileMatrixSet == null || !currentVersion.equals(tileMatrixSetVersion)) {
+                    dataBounds = netCdfManager.getBoundingBox();
+                    tileMatrixSet = new GoogleMapsCompatibleTileMatrixSet(
+                            netCdfManager.getResolution(), dataBounds);
+                    tileMatrixSetVersion = currentVersion;
+                }
+                result = tileMatrixSet;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return a tile as PNG. The array is shared with the cache and must not be modified.
+     * @throws BadRequestException if the tile is outside the tile matrix set.
+     */
+    public byte[] getTile(
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column) throws IOException, InvalidRangeException {
+        checkTile(zoom, row, column);
+        final String tileVersion = getTileVersion(time, depth, zoom, row, column);
+        final byte[] cached
+                = tileCache.get(tileKey(tileVersion, layer, time, depth, zoom, row, column));
+        if (cached != null) {
+            return cached;
+        }
+        return renderMetatile(tileVersion, layer, time, depth, zoom, row, column)
+                .get(tileIndex(row, column));
+    }
+
+    /**
+     * @return the validators of a tile, derived from the files it is rendered from.
+     * @throws BadRequestException if the tile is outside the tile matrix set.
+     */
+    public CacheHeaders getCacheHeaders(
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column,
+            final int maxAgeSeconds) throws IOException {
+        checkTile(zoom, row, column);
+        final List<CatalogEntry> sources = getSourceFiles(time, depth, zoom, row, column);
+        return CacheHeaders.forFiles(sources, maxAgeSeconds,
+                tileKey(version(sources), layer, time, depth, zoom, row, column));
+    }
+
+    /**
+     * @throws BadRequestException if the tile is outside the tile matrix set.
+     */
+    private void checkTile(final int zoom, final int row, final int column) throws IOException {
+        final GoogleMapsCompatibleTileMatrixSet matrixSet = getTileMatrixSet();
+        if (zoom < 0 || zoom >= matrixSet.getTileMatrices().size()) {
+            throw new BadRequestException("TileMatrix out of range: " + zoom);
+        }
+        final TileMatrix matrix = matrixSet.getTileMatrices().get(zoom);
+        if (row < 0 || row >= matrix.getMatrixHeight()
+                || column < 0 || column >= matrix.getMatrixWidth()) {
+            throw new BadRequestException("Tile out of range: " + row + ", " + column);
+        }
+    }
+
+    /**
+     * Drops the cached tiles read from a file, e.g. when it has changed or is gone.
+     */
+    public void invalidate(final String filepath) {
+        final String path = new File(filepath).getAbsolutePath();
+        sourceIdentities.remove(path);
+        final Set<String> versions = versionsBySource.remove(path);
+        if (versions != null) {
+            for (final String tileVersion : versions) {
+                tileCache.removeVersion(tileVersion);
+            }
+        }
+    }
+
+    /**
+     * Renders the metatile starting at a tile into the cache, unless all of its tiles are there
+     * already.
+     *
+     * @return true if the metatile was rendered, false if it was cached.
+     */
+    boolean seed(
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int firstRow,
+            final int firstColumn) throws IOException, InvalidRangeException {
+        final int size = getMetatileSize(zoom);
+        final int tiles = 1 << zoom;
+        getTileMatrixSet();
+        final String tileVersion = getTileVersion(time, depth, zoom, firstRow, firstColumn);
+        for (int row = firstRow; row < Math.min(firstRow + size, tiles); row++) {
+            for (int column = firstColumn; column < Math.min(firstColumn + size, tiles); column++) {
+                final String key = tileKey(tileVersion, layer, time, depth, zoom, row, column);
+                if (tileCache.get(key) == null) {
+                    renderMetatile(tileVersion, layer, time, depth, zoom, firstRow, firstColumn);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return number of tiles along each side of a metatile at a zoom level.
+     */
+    int getMetatileSize(final int zoom) {
+        return Math.min(metatileSize, 1 << zoom);
+    }
+
+    /**
+     * @return {first row, last row, first column, last column} of the tiles at a zoom level that
+     * cover the data.
+     */
+    int[] tilesCoveringData(final int zoom) throws IOException {
+        getTileMatrixSet();
+        final int tiles = 1 << zoom;
+        final int firstRow = tileIndex(WmtsHelper.worldY(dataBounds.getLatMax()), tiles);
+        final int lastRow = tileIndex(WmtsHelper.worldY(dataBounds.getLatMin()), tiles);
+        final int firstColumn = tileIndex(WmtsHelper.worldX(dataBounds.getLonMin()), tiles);
+        final int lastColumn = tileIndex(WmtsHelper.worldX(dataBounds.getLonMax()), tiles);
+        return new int[] {firstRow, lastRow, firstColumn, lastColumn};
+    }
+
+    private static int tileIndex(final double worldPosition, final int tiles) {
+        return Math.max(0, Math.min(tiles - 1, (int) Math.floor(worldPosition * tiles)));
+    }
+
+    private static long tileIndex(final int row, final int column) {
+        return (long) row << 32 | column;
+    }
+
+    /**
+     * @return `version/layer/time/depth/zoom/row/col.png`.
+     */
+    private static String tileKey(
+            final String tileVersion,
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column) {
+        return tileVersion
+                + "/" + layer.getIdentifier()
+                + "/" + time.withZone(DateTimeZone.UTC).toString("yyyyMMdd'T'HHmmss'Z'")
+                + "/" + depth
+                + "/" + zoom
+                + "/" + row
+                + "/" + column + ".png";
+    }
+
+    /**
+     * Renders the metatile containing a tile, or waits for the thread that already does.
+     *
+     * @return the encoded tiles of the metatile by {@link #tileIndex(int, int)}. Every tile is in
+     * the cache as well.
+     */
+    private Map<Long, byte[]> renderMetatile(
+            final String tileVersion,
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column) throws IOException, InvalidRangeException {
+        final int size = getMetatileSize(zoom);
+        final int firstRow = row / size * size;
+        final int firstColumn = column / size * size;
+        final String metatileKey
+                = tileKey(tileVersion, layer, time, depth, zoom, firstRow, firstColumn);
+
+        return metatileRenders.execute(metatileKey, () -> renderAndCache(
+                tileVersion, layer, time, depth, zoom, firstRow, firstColumn, size));
+    }
+
+    private Map<Long, byte[]> renderAndCache(
+            final String tileVersion,
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int firstRow,
+            final int firstColumn,
+            final int size) throws IOException, InvalidRangeException {
+        final int tiles = 1 << zoom;
+        final int rows = Math.min(size, tiles - firstRow);
+        final int columns = Math.min(size, tiles - firstColumn);
+        final BufferedImage metatile
+                = render(layer, time, depth, zoom, firstRow, firstColumn, rows, columns);
+
+        final int tileSize = GoogleMapsCompatibleTileMatrixSet.TILE_SIZE_PX;
+        final Map<Long, byte[]> result = new HashMap<>();
+        for (int row = 0; row < rows; row++) {
+            for (int column = 0; column < columns; column++) {
+                final BufferedImage tile = metatile.getSubimage(
+                        metatileBuffer + column * tileSize, metatileBuffer + row * tileSize,
+                        tileSize, tileSize);
+                final String key = tileKey(tileVersion, layer, time, depth, zoom,
+                        firstRow + row, firstColumn + column);
+                final byte[] encoded = encode(tile);
+                tileCache.put(key, encoded);
+                result.put(tileIndex(firstRow + row, firstColumn + column), encoded);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Renders a block of tiles in one pass, with {@link #metatileBuffer} pixels of margin on
+     * every side.
+     */
+    BufferedImage render(
+            final Layer layer,
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int firstRow,
+            final int firstColumn,
+            final int rows,
+            final int columns) throws IOException, InvalidRangeException {
+        final int tileSize = GoogleMapsCompatibleTileMatrixSet.TILE_SIZE_PX;
+        final BufferedImage image = new BufferedImage(
+                columns * tileSize + 2 * metatileBuffer,
+                rows * tileSize + 2 * metatileBuffer,
+                BufferedImage.TYPE_INT_ARGB);
+        final Placement placement = place(time, depth, zoom, firstRow, firstColumn, rows, columns);
+        if (placement == null) {
+            return image;
+        }
+
+        final FeatureGrid data = layer.read(netCdfManager, placement.area);
+        final BufferedImage part = ImageRenderer.render(
+                data, layer.getStyle(), placement.width, placement.height);
+        final Graphics2D graphics = image.createGraphics();
+        try {
+            graphics.setComposite(AlphaComposite.Src);
+            graphics.drawImage(part, placement.x, placement.y, null);
+        } finally {
+            graphics.dispose();
+        }
+        return image;
+    }
+
+    /**
+     * @return the part of a metatile image covered by data, or null if there is none.
+     */
+    private Placement place(
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int firstRow,
+            final int firstColumn,
+            final int rows,
+            final int columns) {
+        final int tileSize = GoogleMapsCompatibleTileMatrixSet.TILE_SIZE_PX;
+        final int width = columns * tileSize + 2 * metatileBuffer;
+        final int height = rows * tileSize + 2 * metatileBuffer;
+
+        // World pixel coordinates of the image corner
+        final double worldPixels = (double) tileSize * (1 << zoom);
+        final double left = firstColumn * tileSize - metatileBuffer;
+        final double top = firstRow * tileSize - metatileBuffer;
+
+        // Part of the image covered by data
+        final double north = Math.min(WmtsHelper.latitude(top / worldPixels),
+                dataBounds.getLatMax());
+        final double south = Math.max(WmtsHelper.latitude((top + height) / worldPixels),
+                dataBounds.getLatMin());
+        final double west = Math.max(WmtsHelper.longitude(left / worldPixels),
+                dataBounds.getLonMin());
+        final double east = Math.min(WmtsHelper.longitude((left + width) / worldPixels),
+                dataBounds.getLonMax());
+        if (north <= south || east <= west) {
+            return null;
+        }
+
+        // Pixel rectangle of that part
+        final int x0 = (int) Math.round(WmtsHelper.worldX(west) * worldPixels - left);
+        final int x1 = (int) Math.round(WmtsHelper.worldX(east) * worldPixels - left);
+        final int y0 = (int) Math.round(WmtsHelper.worldY(north) * worldPixels - top);
+        final int y1 = (int) Math.round(WmtsHelper.worldY(south) * worldPixels - top);
+        if (x1 <= x0 || y1 <= y0) {
+            return null;
+        }
+        return new Placement(
+                new AreaBounds(new LatLonPointImpl(north, west), new LatLonPointImpl(south, east),
+                        depth, time, Math.min(x1 - x0, y1 - y0)),
+                x0, y0, x1 - x0, y1 - y0);
+    }
+
+    /**
+     * @return the files the metatile containing a tile is read from. The data file if the
+     * metatile has no data, as the data bounds decide that.
+     */
+    private List<CatalogEntry> getSourceFiles(
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column) {
+        final int size = getMetatileSize(zoom);
+        final int firstRow = row / size * size;
+        final int firstColumn = column / size * size;
+        final int tiles = 1 << zoom;
+        final Placement placement = place(time, depth, zoom, firstRow, firstColumn,
+                Math.min(size, tiles - firstRow), Math.min(size, tiles - firstColumn));
+        if (placement == null) {
+            return Collections.singletonList(netCdfManager.getNetCdfFileEntry());
+        }
+        return netCdfManager.getSourceFiles(placement.area);
+    }
+
+    /**
+     * @return the version of the files the metatile containing a tile is read from, after
+     * dropping the cached tiles of any of them that changed since it was last seen.
+     */
+    private String getTileVersion(
+            final DateTime time,
+            final float depth,
+            final int zoom,
+            final int row,
+            final int column) {
+        return version(getSourceFiles(time, depth, zoom, row, column));
+    }
+
+    private String version(final List<CatalogEntry> sources) {
+        final String tileVersion = CacheHeaders.version(sources);
+        for (final CatalogEntry source : sources) {
+            final String path = new File(source.getFilepath()).getAbsolutePath();
+            final String identity = source.getModified() + "-" + source.getSize();
+            final String previous = sourceIdentities.put(path, identity);
+            if (previous != null && !previous.equals(identity)) {
+                invalidate(path);
+                sourceIdentities.put(path, identity);
+            }
+            versionsBySource.computeIfAbsent(path, key -> ConcurrentHashMap.newKeySet())
+                    .add(tileVersion);
+        }
+        return tileVersion;
+    }
+
+    /**
+     * Where the data goes in a metatile image.
+     */
+    private static final class Placement {
+        final AreaBounds area;
+        final int x;
+        final int y;
+        final int width;
+        final int height;
+
+        Placement(
+                final AreaBounds area,
+                final int x,
+                final int y,
+                final int width,
+                final int height) {
+            this.area = area;
+            this.x = x;
+            this.y = y;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    private static byte[] encode(final BufferedImage image) throws IOException {
+        final ByteArrayOutputStream png = new ByteArrayOutputStream(8 * 1024);
+        RsUtil.pngEncoder.write(image, png);
+        return png.toByteArray();
+    }
+
+    /**
+     * @return when the data file or the file catalog last changed, in millis.
+     */
+    public long getDataModified() {
+        return Math.max(netCdfManager.getNetCdfFileEntry().getModified(),
+                netCdfManager.getFileCatalog().getChangedAt());
+    }
+
+    /**
+     * @return a string that changes when the data file or the file catalog does, for the tile
+     * matrix set and the capabilities.
+     */
+    public String getDataVersion() {
+        final CatalogEntry dataFile = netCdfManager.getNetCdfFileEntry();
+        return Long.toHexString(dataFile.getModified()) + "-" + Long.toHexString(dataFile.getSize())
+                + "-" + netCdfManager.getFileCatalog().getVersion();
+    }
+}
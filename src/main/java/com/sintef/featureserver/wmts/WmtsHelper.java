@@ -1,12 +1,61 @@
 package com.sintef.featureserver.wmts;
 
-import ucar.unidata.geoloc.LatLonPoint;
+import ucar.unidata.geoloc.LatLonPointImpl;
+import ucar.unidata.geoloc.LatLonRect;
 
 /**
  * Contains methods related to WMTS calculations such as TileSet definitions.
  *
+ * Tiles use the spherical (pseudo) mercator grid of {@link GoogleMapsCompatibleTileMatrixSet}:
+ * at zoom level z the world is 2^z by 2^z tiles, row 0 at the north edge and column 0 at 180W.
+ *
  * @author arve
  */
 public class WmtsHelper {
+    // The mercator projection is cut off here, making the world square.
+    public static final double MAX_LATITUDE = 85.0511287798066;
+
+    private WmtsHelper() {} // Should not be instantiated.
+
+    /**
+     * @return the area covered by a tile.
+     */
+    public static LatLonRect tileBounds(final int zoom, final int row, final int column) {
+        final double tiles = 1 << zoom;
+        final double west = longitude(column / tiles);
+        final double east = longitude((column + 1) / tiles);
+        final double north = latitude(row / tiles);
+        final double south = latitude((row + 1) / tiles);
+        return new LatLonRect(new LatLonPointImpl(north, west), new LatLonPointImpl(south, east));
+    }
+
+    /**
+     * @return position of a longitude in the world, 0 at 180W and 1 at 180E.
+     */
+    public static double worldX(final double longitude) {
+        return (longitude + 180.0) / 360.0;
+    }
+
+    /**
+     * @return position of a latitude in the world, 0 at the north edge and 1 at the south edge.
+     */
+    public static double worldY(final double latitude) {
+        final double clamped = Math.max(-MAX_LATITUDE, Math.min(MAX_LATITUDE, latitude));
+        final double radians = Math.toRadians(clamped);
+        return (1.0 - Math.log(Math.tan(radians) + 1.0 / Math.cos(radians)) / Math.PI) / 2.0;
+    }
+
+    /**
+     * @return longitude of a position in the world, inverse of {@link #worldX(double)}.
+     */
+    public static double longitude(final double worldX) {
+        return worldX * 360.0 - 180.0;
+    }
 
+    /**
+     * @return latitude of a position in the world, inverse of {@link #worldY(double)}.
+     */
+    public static double latitude(final double worldY) {
+        return Math.toDegrees(Math.atan(Math.sinh(Math.PI * (1.0 - 2.0 * worldY))));
     }
+}